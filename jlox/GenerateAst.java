@@ -13,34 +13,36 @@ public class GenerateAst {
         }
         final String out_dir = args[0];
 
+        // Fields after the '|' are left mutable so the resolver can annotate the node.
+
         define_ast(out_dir, "Expr", Arrays.asList(
-            "Assign   : Token name, Expr value",
+            "Assign   : Token name, Expr value | int depth = -1, int slot = 0",
             "Binary   : Expr left, Token operator, Expr right",
             "Call     : Expr callee, Token paren, List<Expr> arguments",
-            "Get      : Expr object, Token name",
+            "Get      : Expr object, Token name | InlineCache cache = new InlineCache()",
             "Grouping : Expr expression",
-            "Lambda   : Token token, List<Token> params, List<Stmt> body",
+            "Lambda   : Token token, List<Token> params, List<Stmt> body | boolean frame_escapes = true",
             "Literal  : Object value",
             "Logical  : Expr left, Token operator, Expr right",
-            "Set      : Expr object, Token name, Expr value",
-            "This     : Token keyword",
+            "Set      : Expr object, Token name, Expr value | InlineCache cache = new InlineCache()",
+            "This     : Token keyword | int depth = -1, int slot = 0",
             "Ternary  : Expr condition, Expr if_true, Expr otherwise",
             "Unary    : Token operator, Expr right",
-            "Variable : Token name, boolean function"
+            "Variable : Token name, boolean function | int depth = -1, int slot = 0"
         ));
 
         define_ast(out_dir, "Stmt", Arrays.asList(
-            "Block       : List<Stmt> statements",
+            "Block       : List<Stmt> statements | boolean frame_escapes = true, Environment spare = null",
             "Break       : ",
             "Class       : Token name, List<Stmt.Var> attributes, List<Stmt.Function> methods",
             "Continue    : ",
             "Expression  : Expr expression",
-            "Function    : Token name, List<Token> params, List<Stmt> body",
+            "Function    : Token name, List<Token> params, List<Stmt> body | boolean frame_escapes = true",
             "If          : Expr condition, Stmt then_branch," +
                          " List<Else_If> else_ifs," +
                          " Stmt else_branch",
             "Print       : Expr expression, boolean newline",
-            "Return      : Token keyword, Expr value",
+            "Return      : Token keyword, Expr value | boolean tail_call = false",
             "Var         : Token name, Expr initializer",
             "While       : Expr condition, Stmt body, boolean has_increment"
         ));
@@ -65,6 +67,9 @@ public class GenerateAst {
         writer.println("abstract class " + base_name + " {");
 
         if (base_name.equals("Expr")) {
+            writer.println();
+            writer.println("\t// Set by the resolver when the expression can only evaluate to a number.");
+            writer.println("\tboolean numeric = false;");
             writer.println();
             define_to_string(writer);
         }
@@ -78,15 +83,17 @@ public class GenerateAst {
         for (String type : types ) {
             writer.println();
             String class_name = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            define_type(writer, base_name, class_name, fields);
+            String[] all_fields = type.split(":")[1].split("\\|");
+            String fields = all_fields[0].trim();
+            String mutable_fields = all_fields.length > 1 ? all_fields[1].trim() : "";
+            define_type(writer, base_name, class_name, fields, mutable_fields);
         }
 
         writer.println("}");
         writer.close();
     }
 
-    static void define_type(PrintWriter writer, String base_name, String class_name, String fields) {
+    static void define_type(PrintWriter writer, String base_name, String class_name, String fields, String mutable_fields) {
         writer.println("\tstatic class " + class_name + " extends " + base_name + " {");
 
         // Constructor.
@@ -114,6 +121,14 @@ public class GenerateAst {
             if (field.trim().isEmpty()) continue;
             writer.println("\t\tfinal " + field.trim() + ";");
         }
+
+        // Mutable fields.
+        if (!mutable_fields.isEmpty()) {
+            writer.println();
+            for (String field : mutable_fields.split(",")) {
+                writer.println("\t\t" + field.trim() + ";");
+            }
+        }
         writer.println("\t}");
     }
 
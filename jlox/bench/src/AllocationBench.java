@@ -0,0 +1,81 @@
+package src;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+// Counts the bytes the tree-walker allocates while running small workloads.
+//
+//   mvn package
+//   java -cp bench/target/benchmarks.jar src.AllocationBench
+class AllocationBench {
+    private static final String LOOP =
+        "fun loop(n) {\n" +
+        "    var sum = 0;\n" +
+        "    for (var i = 0; i < n; i = i + 1) {\n" +
+        "        sum = (sum + i * 3 - 1) & 1023;\n" +
+        "    }\n" +
+        "    return sum;\n" +
+        "}\n" +
+        "loop(1000000);\n";
+
+    private static final String FIB =
+        "fun fib(n) {\n" +
+        "    if (n < 2) do return n;\n" +
+        "    return fib(n - 1) + fib(n - 2);\n" +
+        "}\n" +
+        "fib(25);\n";
+
+    private static final String METHODS =
+        "class Counter {\n" +
+        "    var n = 0;\n" +
+        "    fun add(x) { this.n = (this.n + x) & 1023; }\n" +
+        "}\n" +
+        "var counter = Counter();\n" +
+        "fun run(n) {\n" +
+        "    for (var i = 0; i < n; i = i + 1) { counter.add(1); }\n" +
+        "}\n" +
+        "run(1000000);\n";
+
+    private static final String CALLS =
+        "fun zero() { return 1; }\n" +
+        "fun one(a) { return a + 1; }\n" +
+        "fun two(a, b) { return (a + b) & 1023; }\n" +
+        "fun three(a, b, c) { return (a + b - c) & 1023; }\n" +
+        "fun run(n) {\n" +
+        "    var x = 0;\n" +
+        "    for (var i = 0; i < n; i = i + 1) {\n" +
+        "        x = three(two(one(x), zero()), i & 255, 1);\n" +
+        "    }\n" +
+        "    return x;\n" +
+        "}\n" +
+        "run(250000);\n";
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+
+        measure(threads, thread, "loop, 1M iterations", LOOP, 1_000_000);
+        measure(threads, thread, "fib(25), 242785 calls", FIB, 242_785);
+        measure(threads, thread, "method, 1M calls", METHODS, 1_000_000);
+        measure(threads, thread, "calls, 1M calls", CALLS, 1_000_000);
+    }
+
+    private static void measure(com.sun.management.ThreadMXBean threads, long thread, String name, String source, long operations) {
+        List<Stmt> statements = new Parser(new Scanner(source).get_tokens()).parse_statements();
+        new Resolver().resolve_statements(statements);
+
+        // The first runs warm up the JIT; only the last one is counted.
+        for (int i = 0; i < 5; i++) {
+            new Interpreter().interpret(statements);
+        }
+
+        Interpreter interpreter = new Interpreter();
+        long before = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        interpreter.interpret(statements);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        System.out.printf("%-24s %8.1f bytes/op %8.1f ms%n", name, (double)allocated / operations, elapsed / 1e6);
+    }
+}
@@ -0,0 +1,51 @@
+package src;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+// Allocates a million instances of a class with eight fields and reports the
+// bytes allocated and the heap still held per instance.
+//
+//   mvn package
+//   java -cp bench/target/benchmarks.jar src.InstanceMemoryBench
+class InstanceMemoryBench {
+    private static final int INSTANCES = 1_000_000;
+
+    private static final String SOURCE =
+        "class Record {\n" +
+        "    var a = 1; var b = 2; var c = 3; var d = 4;\n" +
+        "    var e = 5; var f = 6; var g = 7; var h = 8;\n" +
+        "}\n";
+
+    public static void main(String[] args) {
+        Interpreter interpreter = new Interpreter();
+        interpreter.interpret(Workloads.resolved(SOURCE));
+        Symbol name = Symbol.intern("Record");
+        LoxClass record = (LoxClass)interpreter.globals.get(new Token(TokenType.IDENTIFIER, name.name, null, 0, name.id));
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+
+        Object[] instances = new Object[INSTANCES];
+        long heap_before = used_heap();
+        long allocated_before = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < INSTANCES; i++) {
+            instances[i] = record.call(interpreter, List.of());
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocated_before;
+        long retained = used_heap() - heap_before;
+
+        System.out.printf("allocated %6.1f bytes/instance%n", (double)allocated / INSTANCES);
+        System.out.printf("retained  %6.1f bytes/instance%n", (double)retained / INSTANCES);
+        System.out.printf("time      %6.1f ms%n", elapsed / 1e6);
+        if (instances[INSTANCES - 1] == null) throw new IllegalStateException();
+    }
+
+    private static long used_heap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,33 @@
+package src;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBench {
+    @Param({"recursion", "loop", "strings", "classes", "append", "guards", "large"})
+    String workload;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        statements = Workloads.resolved(Workloads.source(workload));
+    }
+
+    // A fresh interpreter each time, so the script can define its globals again.
+    @Benchmark
+    public Interpreter interpret() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.interpret(statements);
+        if (Lox.had_runtime_error) throw new IllegalStateException("Workload failed.");
+        return interpreter;
+    }
+}
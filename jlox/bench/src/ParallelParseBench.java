@@ -0,0 +1,59 @@
+package src;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Parses a 50 MB file of top-level functions in order and in chunks on the
+// common pool, the way Lox reads a script given --parallel-parse. The file is
+// written to a temporary directory and mapped like Lox maps it. It takes a
+// few GB of heap:
+//
+//   mvn package
+//   java -Xmx4g -cp bench/target/benchmarks.jar src.ParallelParseBench
+class ParallelParseBench {
+    private static final int FILE_BYTES = 50 << 20;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int function_bytes = Workloads.large(1000).length() / 1000;
+        Path path = Files.createTempFile("parallel_parse", ".lox");
+        try {
+            Files.writeString(path, Workloads.large(FILE_BYTES / function_bytes));
+            TokenBuffer tokens;
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                tokens = new Scanner(Utf8Source.of(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()))).get_tokens();
+            }
+            System.out.printf("%d MB, %d tokens, %d threads%n", Files.size(path) >> 20, tokens.size(), ForkJoinPool.getCommonPoolParallelism());
+
+            // The first runs warm up the JIT, and the best of the rest counts.
+            for (int i = 0; i < 2; i++) {
+                measure("in order", tokens, false, i == 1);
+                measure("in parallel", tokens, true, i == 1);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static void measure(String name, TokenBuffer tokens, boolean parallel, boolean report) {
+        long best = Long.MAX_VALUE;
+        int count = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            Parser parser = new Parser(tokens);
+            List<Stmt> statements = parallel
+                ? parser.parse_statements_parallel(ForkJoinPool.commonPool())
+                : parser.parse_statements();
+            best = Math.min(best, System.nanoTime() - start);
+            count = statements.size();
+        }
+        if (Lox.had_error) throw new IllegalStateException("Workload doesn't parse.");
+
+        if (report) System.out.printf("%-12s %8.1f ms %10d statements%n", name, best / 1e6, count);
+    }
+}
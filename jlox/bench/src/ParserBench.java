@@ -0,0 +1,29 @@
+package src;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBench {
+    @Param({"recursion", "loop", "strings", "classes", "large"})
+    String workload;
+
+    private TokenBuffer tokens;
+
+    @Setup
+    public void setup() {
+        tokens = Workloads.tokens(Workloads.source(workload));
+    }
+
+    @Benchmark
+    public List<Stmt> parse_statements() {
+        return new Parser(tokens).parse_statements();
+    }
+}
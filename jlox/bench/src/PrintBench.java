@@ -0,0 +1,45 @@
+package src;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+// Times a program printing ten million numbers, with the buffered output Lox
+// uses by default and with System.out as --unbuffered does. Results go to
+// stderr, so send stdout somewhere cheap:
+//
+//   mvn package
+//   java -cp bench/target/benchmarks.jar src.PrintBench > /dev/null
+class PrintBench {
+    private static final String PRINT =
+        "for (var i = 0; i < 10000000; i = i + 1) {\n" +
+        "    println i;\n" +
+        "}\n";
+
+    public static void main(String[] args) {
+        List<Stmt> statements = new Parser(new Scanner(PRINT).get_tokens()).parse_statements();
+        new Resolver().resolve_statements(statements);
+
+        FileOutputStream stdout = new FileOutputStream(FileDescriptor.out);
+        PrintStream buffered = new PrintStream(new BufferedOutputStream(stdout, 1 << 16), false, System.out.charset());
+
+        // Each is run twice and the second run counted, after the JIT warmed up.
+        for (int i = 0; i < 2; i++) {
+            measure("buffered, 10M lines", statements, buffered, i == 1);
+            measure("unbuffered, 10M lines", statements, System.out, i == 1);
+        }
+    }
+
+    private static void measure(String name, List<Stmt> statements, PrintStream out, boolean report) {
+        Interpreter interpreter = new Interpreter();
+        interpreter.out = out;
+        long start = System.nanoTime();
+        interpreter.interpret(statements);
+        out.flush();
+        long elapsed = System.nanoTime() - start;
+
+        if (report) System.err.printf("%-24s %8.1f ms%n", name, elapsed / 1e6);
+    }
+}
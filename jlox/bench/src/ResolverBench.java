@@ -0,0 +1,31 @@
+package src;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolverBench {
+    @Param({"recursion", "loop", "strings", "classes", "large"})
+    String workload;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        statements = Workloads.statements(Workloads.source(workload));
+    }
+
+    // Resolving the same tree again writes the same annotations on its nodes.
+    @Benchmark
+    public List<Stmt> resolve_statements() {
+        new Resolver().resolve_statements(statements);
+        return statements;
+    }
+}
@@ -0,0 +1,28 @@
+package src;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBench {
+    @Param({"recursion", "loop", "strings", "classes", "large", "unicode"})
+    String workload;
+
+    private String source;
+
+    @Setup
+    public void setup() {
+        source = Workloads.source(workload);
+    }
+
+    @Benchmark
+    public TokenBuffer get_tokens() {
+        return new Scanner(source).get_tokens();
+    }
+}
@@ -0,0 +1,66 @@
+package src;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Turning a thousand counters and indices into text, the way print and string
+// concatenation do, against the Double.toString and trim stringify used to do.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringifyBench {
+    private final Object[] numbers = new Object[1000];
+    private final StringBuilder builder = new StringBuilder();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = (double)(i * 997 - 250_000);
+        }
+    }
+
+    @Benchmark
+    public void stringify(Blackhole blackhole) {
+        for (Object number : numbers) {
+            blackhole.consume(Interpreter.stringify(number));
+        }
+    }
+
+    @Benchmark
+    public void stringify_old(Blackhole blackhole) {
+        for (Object number : numbers) {
+            String text = number.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            blackhole.consume(text);
+        }
+    }
+
+    @Benchmark
+    public int append() {
+        builder.setLength(0);
+        for (Object number : numbers) {
+            NumberFormatter.append(builder, (double)number).append(' ');
+        }
+        return builder.length();
+    }
+
+    @Benchmark
+    public int append_old() {
+        builder.setLength(0);
+        for (Object number : numbers) {
+            String text = number.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            builder.append(text).append(' ');
+        }
+        return builder.length();
+    }
+}
@@ -0,0 +1,43 @@
+package src;
+
+import java.lang.management.ManagementFactory;
+
+// Tokens per second and bytes allocated per token for the scanner alone, and
+// for scanning and parsing, on the large workload.
+//
+//   mvn package
+//   java -cp bench/target/benchmarks.jar src.TokenBench
+class TokenBench {
+    private static final int RUNS = 200;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        String source = Workloads.LARGE;
+        int count = new Scanner(source).get_tokens().size();
+
+        // Warm up both paths before anything is counted.
+        for (int i = 0; i < RUNS; i++) {
+            new Parser(new Scanner(source).get_tokens()).parse_statements();
+        }
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            new Scanner(source).get_tokens();
+        }
+        report("scan", count, System.nanoTime() - start, threads.getThreadAllocatedBytes(thread) - before);
+
+        before = threads.getThreadAllocatedBytes(thread);
+        start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            new Parser(new Scanner(source).get_tokens()).parse_statements();
+        }
+        report("scan and parse", count, System.nanoTime() - start, threads.getThreadAllocatedBytes(thread) - before);
+    }
+
+    private static void report(String name, int count, long elapsed, long allocated) {
+        double tokens = (double)count * RUNS;
+        System.out.printf("%-16s %6.1f M tokens/s %8.1f bytes/token%n", name, tokens / (elapsed / 1e9) / 1e6, allocated / tokens);
+    }
+}
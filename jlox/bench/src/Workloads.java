@@ -0,0 +1,157 @@
+package src;
+
+import java.util.List;
+
+// Synthetic Lox programs shared by the stage benchmarks. None of them print, so
+// the interpreter benchmark measures evaluation and not the console.
+final class Workloads {
+    static final String RECURSION =
+        "fun fib(n) {\n" +
+        "    if (n < 2) do return n;\n" +
+        "    return fib(n - 1) + fib(n - 2);\n" +
+        "}\n" +
+        "fun depth(n) {\n" +
+        "    if (n == 0) do return 0;\n" +
+        "    return 1 + depth(n - 1);\n" +
+        "}\n" +
+        "var result = fib(18);\n" +
+        "for (var i = 0; i < 20; i = i + 1) {\n" +
+        "    result = result + depth(300);\n" +
+        "}\n";
+
+    static final String LOOP =
+        "fun loop() {\n" +
+        "    var sum = 0;\n" +
+        "    for (var i = 0; i < 300; i = i + 1) {\n" +
+        "        for (var j = 0; j < 300; j = j + 1) {\n" +
+        "            sum = (sum + i * j) & 65535;\n" +
+        "        }\n" +
+        "    }\n" +
+        "    return sum;\n" +
+        "}\n" +
+        "var result = loop();\n";
+
+    static final String STRINGS =
+        "var text = \"\";\n" +
+        "for (var i = 0; i < 2000; i = i + 1) {\n" +
+        "    text = text + \"item \" + i + \", \";\n" +
+        "}\n";
+
+    static final String CLASSES =
+        "class Vector {\n" +
+        "    var x = 0;\n" +
+        "    var y = 0;\n" +
+        "    fun add(other) {\n" +
+        "        var result = Vector();\n" +
+        "        result.x = this.x + other.x;\n" +
+        "        result.y = this.y + other.y;\n" +
+        "        return result;\n" +
+        "    }\n" +
+        "    fun length_squared() { return this.x * this.x + this.y * this.y; }\n" +
+        "}\n" +
+        "var total = Vector();\n" +
+        "var step = Vector();\n" +
+        "step.x = 1;\n" +
+        "step.y = 2;\n" +
+        "for (var i = 0; i < 20000; i = i + 1) {\n" +
+        "    total = total.add(step);\n" +
+        "}\n" +
+        "var result = total.length_squared();\n";
+
+    // Builds a 1 MB string one character at a time.
+    static final String APPEND =
+        "var text = \"\";\n" +
+        "for (var i = 0; i < 1000000; i = i + 1) {\n" +
+        "    text = text + \"x\";\n" +
+        "}\n";
+
+    // Guards in front of a call that costs a hundred loop iterations. Only the
+    // last guard lets it run, once.
+    static final String GUARDS =
+        "fun expensive(n) {\n" +
+        "    var sum = 0;\n" +
+        "    for (var i = 0; i < 100; i = i + 1) { sum = sum + i; }\n" +
+        "    return sum > n;\n" +
+        "}\n" +
+        "var hits = 0;\n" +
+        "for (var i = 0; i < 20000; i = i + 1) {\n" +
+        "    if (i < 0 and expensive(i)) do hits = hits + 1;\n" +
+        "    if (i >= 0 or expensive(i)) do hits = hits + 1;\n" +
+        "    hits = hits + (i < 0 ? expensive(i) : 1);\n" +
+        "    if (i == 0 && expensive(i)) do hits = hits + 1;\n" +
+        "}\n";
+
+    static final String LARGE = large(2000);
+
+    static final String UNICODE = unicode(2000);
+
+    // Many small functions, for the front end stages. Running it only defines
+    // them and calls the last one.
+    static String large(int functions) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            source.append("fun f").append(i).append("(a, b) {\n");
+            source.append("    var c = a * ").append(i).append(" + b;\n");
+            source.append("    if (c > 100) {\n");
+            source.append("        c = c - 100;\n");
+            source.append("    } else {\n");
+            source.append("        while (c < 10) { c = c + 1; }\n");
+            source.append("    }\n");
+            source.append("    return c;\n");
+            source.append("}\n");
+        }
+        source.append("var result = f").append(functions - 1).append("(1, 2);\n");
+        return source.toString();
+    }
+
+    // Like large(), but written with non-ASCII names and strings, some of them
+    // outside the BMP, for the scanner's slow paths.
+    private static String unicode(int functions) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            source.append("fun función_").append(i).append("(α, 𝑥) {\n");
+            source.append("    var 名前 = α * ").append(i).append(" + 𝑥;\n");
+            source.append("    if (名前 > 100) {\n");
+            source.append("        名前 = 名前 - 100; // ещё 😀\n");
+            source.append("    } else {\n");
+            source.append("        var текст = \"größer 🩴🦶🏻 \" + 名前;\n");
+            source.append("    }\n");
+            source.append("    return 名前;\n");
+            source.append("}\n");
+        }
+        source.append("var result = función_").append(functions - 1).append("(1, 2);\n");
+        return source.toString();
+    }
+
+    static String source(String name) {
+        switch (name) {
+            case "recursion": return RECURSION;
+            case "loop": return LOOP;
+            case "strings": return STRINGS;
+            case "classes": return CLASSES;
+            case "append": return APPEND;
+            case "guards": return GUARDS;
+            case "large": return LARGE;
+            case "unicode": return UNICODE;
+        }
+        throw new IllegalArgumentException("Unknown workload '" + name + "'.");
+    }
+
+    static TokenBuffer tokens(String source) {
+        return new Scanner(source).get_tokens();
+    }
+
+    static List<Stmt> statements(String source) {
+        return new Parser(tokens(source)).parse_statements();
+    }
+
+    static List<Stmt> resolved(String source) {
+        List<Stmt> statements = statements(source);
+        new Resolver().resolve_statements(statements);
+        if (Lox.had_error) throw new IllegalStateException("Workload doesn't compile.");
+        return statements;
+    }
+
+    private Workloads() {
+    }
+}
@@ -0,0 +1,40 @@
+package src;
+
+import java.util.Arrays;
+
+class Chunk {
+    byte[] code = new byte[8];
+    int count = 0;
+    Object[] constants = new Object[8];
+    int constant_count = 0;
+    final RleLines lines = new RleLines();
+
+    void write(int b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+        }
+        code[count++] = (byte)b;
+        lines.append(line);
+    }
+
+    void write_constant(Object value, int line) {
+        int index = add_constant(value);
+        if (index <= 0xFF) {
+            write(OpCode.OP_CONSTANT, line);
+            write(index, line);
+        } else {
+            write(OpCode.OP_CONSTANT_LONG, line);
+            write(index >> 16, line);
+            write(index >> 8, line);
+            write(index, line);
+        }
+    }
+
+    int add_constant(Object value) {
+        if (constant_count == constants.length) {
+            constants = Arrays.copyOf(constants, constant_count * 2);
+        }
+        constants[constant_count] = value;
+        return constant_count++;
+    }
+}
@@ -0,0 +1,309 @@
+package src;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of the class file format to emit the classes the JvmCompiler needs.
+// It targets version 49 so the verifier infers types itself and no stack map
+// frames have to be computed.
+class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream pool_bytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(pool_bytes);
+    private final Map<String, Integer> pool_entries = new HashMap<>();
+    private int pool_count = 1;
+
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    private final String this_class;
+
+    ClassFileWriter(String this_class) {
+        this.this_class = this_class;
+    }
+
+    int utf8(String value) {
+        return entry("Utf8:" + value, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int class_ref(String internal_name) {
+        int name = utf8(internal_name);
+        return entry("Class:" + internal_name, out -> {
+            out.writeByte(7);
+            out.writeShort(name);
+        });
+    }
+
+    int string(String value) {
+        int utf8 = utf8(value);
+        return entry("String:" + value, out -> {
+            out.writeByte(8);
+            out.writeShort(utf8);
+        });
+    }
+
+    int integer(int value) {
+        return entry("Integer:" + value, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    int field_ref(String owner, String name, String descriptor) {
+        return member_ref(9, owner, name, descriptor);
+    }
+
+    int method_ref(String owner, String name, String descriptor) {
+        return member_ref(10, owner, name, descriptor);
+    }
+
+    private int member_ref(int tag, String owner, String name, String descriptor) {
+        int owner_index = class_ref(owner);
+        int name_index = utf8(name);
+        int descriptor_index = utf8(descriptor);
+        int name_and_type = entry("NameAndType:" + name + ":" + descriptor, out -> {
+            out.writeByte(12);
+            out.writeShort(name_index);
+            out.writeShort(descriptor_index);
+        });
+        return entry("Ref" + tag + ":" + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(owner_index);
+            out.writeShort(name_and_type);
+        });
+    }
+
+    private interface EntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int entry(String key, EntryWriter writer) {
+        Integer index = pool_entries.get(key);
+        if (index != null) return index;
+        try {
+            writer.write(pool);
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+        pool_entries.put(key, pool_count);
+        return pool_count++;
+    }
+
+    void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    void method(int access, String name, String descriptor, Code code) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + code.length);
+            out.writeShort(code.max_stack);
+            out.writeShort(code.max_locals);
+            out.writeInt(code.length);
+            out.write(code.bytes, 0, code.length);
+            out.writeShort(0); // Exception table.
+            out.writeShort(0); // Attributes.
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    byte[] to_bytes(String super_class, String... interfaces) {
+        int this_index = class_ref(this_class);
+        int super_index = class_ref(super_class);
+        int[] interface_indices = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            interface_indices[i] = class_ref(interfaces[i]);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(pool_count);
+            pool_bytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(this_index);
+            out.writeShort(super_index);
+            out.writeShort(interface_indices.length);
+            for (int index : interface_indices) out.writeShort(index);
+            out.writeShort(fields.size());
+            for (byte[] field : fields) out.write(field);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) out.write(method);
+            out.writeShort(0);
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+        return bytes.toByteArray();
+    }
+
+    static class Label {
+        private int position = -1;
+        private final List<Integer> branches = new ArrayList<>();
+    }
+
+    // A method body. Keeps track of the operand stack depth as instructions are
+    // emitted; in the code the JvmCompiler generates every branch leaves the
+    // stack as deep as it found it, so a straight-line count is exact.
+    static class Code {
+        static final int ACONST_NULL = 0x01;
+        static final int ALOAD = 0x19;
+        static final int AALOAD = 0x32;
+        static final int ASTORE = 0x3A;
+        static final int AASTORE = 0x53;
+        static final int POP = 0x57;
+        static final int DUP = 0x59;
+        static final int IFEQ = 0x99;
+        static final int IFNE = 0x9A;
+        static final int GOTO = 0xA7;
+        static final int ARETURN = 0xB0;
+        static final int RETURN = 0xB1;
+        static final int GETSTATIC = 0xB2;
+        static final int GETFIELD = 0xB4;
+        static final int PUTFIELD = 0xB5;
+        static final int INVOKEVIRTUAL = 0xB6;
+        static final int INVOKESPECIAL = 0xB7;
+        static final int INVOKESTATIC = 0xB8;
+        static final int ANEWARRAY = 0xBD;
+        static final int CHECKCAST = 0xC0;
+
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        int max_stack = 0;
+        int max_locals;
+
+        Code(int max_locals) {
+            this.max_locals = max_locals;
+        }
+
+        int length() {
+            return length;
+        }
+
+        private void u1(int value) {
+            if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte)value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void stack(int delta) {
+            stack += delta;
+            if (stack > max_stack) max_stack = stack;
+        }
+
+        void op(int opcode, int stack_delta) {
+            u1(opcode);
+            stack(stack_delta);
+        }
+
+        void op_u2(int opcode, int operand, int stack_delta) {
+            u1(opcode);
+            u2(operand);
+            stack(stack_delta);
+        }
+
+        void aload(int local) {
+            if (local < 4) {
+                op(0x2A + local, 1);
+            } else {
+                u1(ALOAD);
+                u1(local);
+                stack(1);
+            }
+        }
+
+        void astore(int local) {
+            if (local < 4) {
+                op(0x4B + local, -1);
+            } else {
+                u1(ASTORE);
+                u1(local);
+                stack(-1);
+            }
+            if (local >= max_locals) max_locals = local + 1;
+        }
+
+        void push_int(ClassFileWriter writer, int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(0x10);
+                u1(value);
+                stack(1);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(0x11);
+                u2(value);
+                stack(1);
+            } else {
+                op_u2(0x13, writer.integer(value), 1);
+            }
+        }
+
+        // 'arguments' counts the receiver for non-static calls.
+        void invoke(int opcode, int method_ref, int arguments, boolean returns_value) {
+            op_u2(opcode, method_ref, (returns_value ? 1 : 0) - arguments);
+        }
+
+        void jump(int opcode, Label label) {
+            int position = length;
+            u1(opcode);
+            u2(0);
+            stack(opcode == GOTO ? 0 : -1);
+            if (label.position >= 0) {
+                patch(position, label.position);
+            } else {
+                label.branches.add(position);
+            }
+        }
+
+        void mark(Label label) {
+            label.position = length;
+            for (int branch : label.branches) patch(branch, label.position);
+            label.branches.clear();
+        }
+
+        private void patch(int branch, int target) {
+            int offset = target - branch;
+            bytes[branch + 1] = (byte)(offset >> 8);
+            bytes[branch + 2] = (byte)offset;
+        }
+    }
+}
@@ -0,0 +1,688 @@
+package src;
+
+import java.util.List;
+
+import static src.Interpreter.check_number_operand;
+import static src.Interpreter.check_number_operands;
+import static src.Interpreter.is_equal;
+import static src.Interpreter.is_truthy;
+import static src.Interpreter.stringify;
+
+// Alternative execution engine. Every Expr and Stmt is compiled once into a tree
+// of lambdas that are already specialized on the operator, the variable's depth
+// and the shape of the operands, so running them skips the visitor dispatch and
+// the switch on the token type.
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>, Stmt.Visitor<ClosureCompiler.StmtNode> {
+
+    interface ExprNode {
+        Object evaluate(Environment environment);
+    }
+
+    // Statements report how they completed instead of throwing or setting flags.
+    interface StmtNode {
+        int execute(Environment environment);
+    }
+
+    static final int NORMAL = 0;
+    static final int BREAK = 1;
+    static final int CONTINUE = 2;
+    static final int RETURN = 3;
+
+    private final Interpreter interpreter;
+    private final Globals globals;
+    private Object return_value = null;
+
+    ClosureCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    void interpret(List<Stmt> statements) {
+        try {
+            for (StmtNode node : compile_statements(statements)) {
+                node.execute(null);
+            }
+        } catch (LoxRuntimeError error) {
+            Lox.runtime_error(error);
+        }
+    }
+
+    private ExprNode compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private StmtNode compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private StmtNode[] compile_statements(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+        return nodes;
+    }
+
+    private CompiledFunction compile_function(Stmt.Function declaration) {
+        StmtNode[] body = compile_statements(declaration.body);
+        return frame -> {
+            for (StmtNode node : body) {
+                int completion = node.execute(frame);
+                if (completion == RETURN) {
+                    Object value = return_value;
+                    return_value = null;
+                    return value;
+                }
+                if (completion != NORMAL) break;
+            }
+            return null;
+        };
+    }
+
+    private static int execute_block(StmtNode[] statements, Environment environment) {
+        for (StmtNode node : statements) {
+            int completion = node.execute(environment);
+            if (completion != NORMAL) return completion;
+        }
+        return NORMAL;
+    }
+
+    private int define(Environment environment, Token name, Object value) {
+        if (environment == null) {
+            globals.define(name.symbol, value);
+            return -1;
+        }
+        return environment.define(value);
+    }
+
+    private static Double number_literal(Expr expr) {
+        if (expr instanceof Expr.Literal literal && literal.value instanceof Double number) return number;
+        return null;
+    }
+
+    @Override
+    public StmtNode visit_block_stmt(Stmt.Block stmt) {
+        StmtNode[] statements = compile_statements(stmt.statements);
+        return environment -> execute_block(statements, new Environment(environment));
+    }
+
+    @Override
+    public StmtNode visit_break_stmt(Stmt.Break stmt) {
+        return environment -> BREAK;
+    }
+
+    @Override
+    public StmtNode visit_continue_stmt(Stmt.Continue stmt) {
+        return environment -> CONTINUE;
+    }
+
+    @Override
+    public StmtNode visit_class_stmt(Stmt.Class stmt) {
+        int method_count = stmt.methods.size();
+        CompiledFunction[] methods_code = new CompiledFunction[method_count];
+        for (int i = 0; i < method_count; i++) {
+            methods_code[i] = compile_function(stmt.methods.get(i));
+        }
+        int field_count = stmt.attributes.size();
+        ExprNode[] initializers = new ExprNode[field_count];
+        for (int i = 0; i < field_count; i++) {
+            Expr initializer = stmt.attributes.get(i).initializer;
+            if (initializer != null) initializers[i] = compile(initializer);
+        }
+
+        return environment -> {
+            int slot = define(environment, stmt.name, null);
+            LoxFunction[] methods = new LoxFunction[method_count];
+            for (int i = 0; i < method_count; i++) {
+                methods[i] = new LoxFunction(stmt.methods.get(i), environment, methods_code[i]);
+            }
+            Object[] fields = new Object[field_count];
+            for (int i = 0; i < field_count; i++) {
+                Object initializer;
+                if (initializers[i] != null) {
+                    initializer = initializers[i].evaluate(environment);
+                } else {
+                    initializer = new UninitializedValue();
+                }
+                fields[i] = initializer;
+            }
+            LoxClass lox_class = new LoxClass(stmt, methods, fields);
+            if (environment == null) {
+                globals.assign(stmt.name, lox_class);
+            } else {
+                environment.assign(slot, lox_class);
+            }
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visit_expression_stmt(Stmt.Expression stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return environment -> {
+            Object value = expression.evaluate(environment);
+            if (Lox.REPL) {
+                String first_part = "expression statement '" + stmt.expression + "' has a value of '";
+                interpreter.out.println(first_part + stringify(value) + "'.");
+            }
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visit_function_stmt(Stmt.Function stmt) {
+        CompiledFunction code = compile_function(stmt);
+        return environment -> {
+            if (globals.find(stmt.name)) {
+                String message = "Function name '" + stmt.name.lexeme + "' is already in use.";
+                throw new LoxRuntimeError(stmt.name, message);
+            }
+            define(environment, stmt.name, new LoxFunction(stmt, environment, code));
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visit_if_stmt(Stmt.If stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode then_branch = compile(stmt.then_branch);
+        int count = stmt.else_ifs.size();
+        ExprNode[] else_if_conditions = new ExprNode[count];
+        StmtNode[] else_if_branches = new StmtNode[count];
+        for (int i = 0; i < count; i++) {
+            else_if_conditions[i] = compile(stmt.else_ifs.get(i).condition);
+            else_if_branches[i] = compile(stmt.else_ifs.get(i).then_branch);
+        }
+        StmtNode else_branch = stmt.else_branch != null ? compile(stmt.else_branch) : null;
+
+        if (count == 0 && else_branch == null) {
+            return environment -> {
+                if (is_truthy(condition.evaluate(environment))) return then_branch.execute(environment);
+                return NORMAL;
+            };
+        }
+        return environment -> {
+            if (is_truthy(condition.evaluate(environment))) return then_branch.execute(environment);
+            for (int i = 0; i < count; i++) {
+                if (is_truthy(else_if_conditions[i].evaluate(environment))) {
+                    return else_if_branches[i].execute(environment);
+                }
+            }
+            if (else_branch != null) return else_branch.execute(environment);
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visit_print_stmt(Stmt.Print stmt) {
+        ExprNode expression = compile(stmt.expression);
+        if (stmt.newline) {
+            return environment -> {
+                interpreter.out.println(stringify(expression.evaluate(environment)));
+                return NORMAL;
+            };
+        }
+        return environment -> {
+            interpreter.out.print(stringify(expression.evaluate(environment)));
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visit_return_stmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return environment -> {
+                return_value = null;
+                return RETURN;
+            };
+        }
+        ExprNode value = stmt.tail_call ? compile_call((Expr.Call)stmt.value, true) : compile(stmt.value);
+        return environment -> {
+            return_value = value.evaluate(environment);
+            return RETURN;
+        };
+    }
+
+    @Override
+    public StmtNode visit_var_stmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) {
+            return environment -> {
+                define(environment, stmt.name, new UninitializedValue());
+                return NORMAL;
+            };
+        }
+        ExprNode initializer = compile(stmt.initializer);
+        return environment -> {
+            define(environment, stmt.name, initializer.evaluate(environment));
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visit_while_stmt(Stmt.While stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode body = compile(stmt.body);
+
+        // After a 'continue' the increment still has to run, in a frame standing
+        // in for the body block it was resolved in.
+        StmtNode increment = null;
+        if (stmt.body instanceof Stmt.Block block && stmt.has_increment) {
+            increment = compile(block.statements.getLast());
+        }
+        StmtNode increment_node = increment;
+
+        return environment -> {
+            while (is_truthy(condition.evaluate(environment))) {
+                int completion = body.execute(environment);
+                if (completion == BREAK) break;
+                if (completion == RETURN) return RETURN;
+                if (completion == CONTINUE && increment_node != null) {
+                    increment_node.execute(new Environment(environment));
+                }
+            }
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public ExprNode visit_assign_expr(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+        int slot = expr.slot;
+        int depth = expr.depth;
+
+        if (depth < 0) {
+            return environment -> {
+                Object result = value.evaluate(environment);
+                globals.assign(expr.name, result);
+                return result;
+            };
+        }
+        if (depth == 0) {
+            return environment -> {
+                Object result = value.evaluate(environment);
+                environment.assign(slot, result);
+                return result;
+            };
+        }
+        return environment -> {
+            Object result = value.evaluate(environment);
+            environment.assign_at(depth, slot, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visit_binary_expr(Expr.Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+        Double constant = number_literal(expr.right);
+
+        switch (operator.type) {
+            case STAR: return environment -> {
+                Object a = left.evaluate(environment), b = right.evaluate(environment);
+                check_number_operands(a, operator, b);
+                return (double)a * (double)b;
+            };
+            case SLASH: return environment -> {
+                Object a = left.evaluate(environment), b = right.evaluate(environment);
+                check_number_operands(a, operator, b);
+                if ((double)b == 0) throw new LoxRuntimeError(operator, "Can't divide by zero.");
+                return (double)a / (double)b;
+            };
+            case MINUS: {
+                if (constant != null) {
+                    double k = constant;
+                    return environment -> {
+                        Object a = left.evaluate(environment);
+                        check_number_operands(a, operator, constant);
+                        return (double)a - k;
+                    };
+                }
+                return environment -> {
+                    Object a = left.evaluate(environment), b = right.evaluate(environment);
+                    check_number_operands(a, operator, b);
+                    return (double)a - (double)b;
+                };
+            }
+            case PLUS: {
+                if (constant != null) {
+                    double k = constant;
+                    String k_string = stringify(constant);
+                    return environment -> {
+                        Object a = left.evaluate(environment);
+                        if (a instanceof Number) return (double)a + k;
+                        if (a instanceof CharSequence string) return LoxString.concat(string, k_string);
+                        throw new LoxRuntimeError(operator, "Operands must be both numbers or either one of them a string.");
+                    };
+                }
+                return environment -> add(operator, left.evaluate(environment), right.evaluate(environment));
+            }
+
+            case GREATER: {
+                if (constant != null) {
+                    double k = constant;
+                    return environment -> {
+                        Object a = left.evaluate(environment);
+                        check_number_operands(a, operator, constant);
+                        return (double)a > k;
+                    };
+                }
+                return environment -> {
+                    Object a = left.evaluate(environment), b = right.evaluate(environment);
+                    check_number_operands(a, operator, b);
+                    return (double)a > (double)b;
+                };
+            }
+            case LESS: {
+                if (constant != null) {
+                    double k = constant;
+                    return environment -> {
+                        Object a = left.evaluate(environment);
+                        check_number_operands(a, operator, constant);
+                        return (double)a < k;
+                    };
+                }
+                return environment -> {
+                    Object a = left.evaluate(environment), b = right.evaluate(environment);
+                    check_number_operands(a, operator, b);
+                    return (double)a < (double)b;
+                };
+            }
+            case GREATER_EQUAL: return environment -> {
+                Object a = left.evaluate(environment), b = right.evaluate(environment);
+                check_number_operands(a, operator, b);
+                return (double)a >= (double)b;
+            };
+            case LESS_EQUAL: {
+                if (constant != null) {
+                    double k = constant;
+                    return environment -> {
+                        Object a = left.evaluate(environment);
+                        check_number_operands(a, operator, constant);
+                        return (double)a <= k;
+                    };
+                }
+                return environment -> {
+                    Object a = left.evaluate(environment), b = right.evaluate(environment);
+                    check_number_operands(a, operator, b);
+                    return (double)a <= (double)b;
+                };
+            }
+
+            case EQUAL_EQUAL: return environment -> is_equal(left.evaluate(environment), right.evaluate(environment));
+            case BANG_EQUAL: return environment -> !is_equal(left.evaluate(environment), right.evaluate(environment));
+
+            case BITWISE_AND: return environment -> {
+                Object a = left.evaluate(environment), b = right.evaluate(environment);
+                check_number_operands(a, operator, b);
+                return (double)((long)(double)a & (long)(double)b);
+            };
+            case BITWISE_OR: return environment -> {
+                Object a = left.evaluate(environment), b = right.evaluate(environment);
+                check_number_operands(a, operator, b);
+                return (double)((long)(double)a | (long)(double)b);
+            };
+            case BITWISE_XOR: return environment -> {
+                Object a = left.evaluate(environment), b = right.evaluate(environment);
+                check_number_operands(a, operator, b);
+                return (double)((long)(double)a ^ (long)(double)b);
+            };
+            case LEFT_SHIFT: return environment -> {
+                Object a = left.evaluate(environment), b = right.evaluate(environment);
+                check_number_operands(a, operator, b);
+                return (double)((long)(double)a << (long)(double)b);
+            };
+            case RIGHT_SHIFT: return environment -> {
+                Object a = left.evaluate(environment), b = right.evaluate(environment);
+                check_number_operands(a, operator, b);
+                return (double)((long)(double)a >> (long)(double)b);
+            };
+        }
+        return environment -> {
+            left.evaluate(environment);
+            right.evaluate(environment);
+            return null;
+        };
+    }
+
+    private static Object add(Token operator, Object left, Object right) {
+        if (left instanceof Number && right instanceof Number)
+            return (double)left + (double)right;
+        if (left instanceof CharSequence a && right instanceof CharSequence b)
+            return LoxString.concat(a, b);
+        if (left instanceof CharSequence a && right instanceof Number)
+            return LoxString.concat(a, (double)right);
+        if (left instanceof Number && right instanceof CharSequence b)
+            return LoxString.concat(stringify(left), b);
+        throw new LoxRuntimeError(operator, "Operands must be both numbers or either one of them a string.");
+    }
+
+    @Override
+    public ExprNode visit_call_expr(Expr.Call expr) {
+        return compile_call(expr, false);
+    }
+
+    // A call to a LoxFunction in tail position evaluates to the TailCall for
+    // LoxFunction.run() to make.
+    private ExprNode compile_call(Expr.Call expr, boolean tail) {
+        int count = expr.arguments.size();
+        ExprNode[] arguments = new ExprNode[count];
+        for (int i = 0; i < count; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        if (expr.callee instanceof Expr.Get get) {
+            return compile_method_call(expr, get, arguments, tail);
+        }
+
+        ExprNode callee = compile(expr.callee);
+
+        return environment -> {
+            Object function = callee.evaluate(environment);
+
+            Object a = null, b = null, c = null;
+            Object[] rest = null;
+            if (count > 3) {
+                rest = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    rest[i] = arguments[i].evaluate(environment);
+                }
+            } else {
+                if (count > 0) a = arguments[0].evaluate(environment);
+                if (count > 1) b = arguments[1].evaluate(environment);
+                if (count > 2) c = arguments[2].evaluate(environment);
+            }
+
+            if (!(function instanceof LoxCallable callable)) {
+                throw new LoxRuntimeError(expr.paren, "Can only call functions and classes.");
+            }
+
+            if (count != callable.arity()) {
+                String message = "Expected " + callable.arity() + " arguments but found " + count + ".";
+                throw new LoxRuntimeError(expr.paren, message);
+            }
+
+            if (tail && callable instanceof LoxFunction lox_function) {
+                return interpreter.tail_call.set(lox_function, null, a, b, c, rest);
+            }
+            switch (count) {
+                case 0: return callable.call0(interpreter);
+                case 1: return callable.call1(interpreter, a);
+                case 2: return callable.call2(interpreter, a, b);
+                case 3: return callable.call3(interpreter, a, b, c);
+                default: return callable.call(interpreter, rest);
+            }
+        };
+    }
+
+    // 'object.method(...)' calls the method with the receiver as is, without
+    // making a bound method first.
+    private ExprNode compile_method_call(Expr.Call expr, Expr.Get get, ExprNode[] arguments, boolean tail) {
+        ExprNode object = compile(get.object);
+        int count = arguments.length;
+
+        return environment -> {
+            if (!(object.evaluate(environment) instanceof LoxInstance instance)) {
+                throw new LoxRuntimeError(get.name, "Only instances have properties.");
+            }
+            LoxFunction method = get.cache.method(instance, get.name);
+            Object function = method;
+            if (method == null) {
+                function = get.cache.get(instance, get.name);
+                if (function instanceof UninitializedValue) {
+                    throw new LoxRuntimeError(get.name, "Can't access uninitialized value.");
+                }
+            }
+
+            Object a = null, b = null, c = null;
+            Object[] rest = null;
+            if (count > 3) {
+                rest = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    rest[i] = arguments[i].evaluate(environment);
+                }
+            } else {
+                if (count > 0) a = arguments[0].evaluate(environment);
+                if (count > 1) b = arguments[1].evaluate(environment);
+                if (count > 2) c = arguments[2].evaluate(environment);
+            }
+
+            if (!(function instanceof LoxCallable callable)) {
+                throw new LoxRuntimeError(expr.paren, "Can only call functions and classes.");
+            }
+
+            if (count != callable.arity()) {
+                String message = "Expected " + callable.arity() + " arguments but found " + count + ".";
+                throw new LoxRuntimeError(expr.paren, message);
+            }
+
+            if (tail && callable instanceof LoxFunction lox_function) {
+                return interpreter.tail_call.set(lox_function, method != null ? instance : null, a, b, c, rest);
+            }
+            if (method != null) return method.call_method(interpreter, instance, a, b, c, rest);
+            switch (count) {
+                case 0: return callable.call0(interpreter);
+                case 1: return callable.call1(interpreter, a);
+                case 2: return callable.call2(interpreter, a, b);
+                case 3: return callable.call3(interpreter, a, b, c);
+                default: return callable.call(interpreter, rest);
+            }
+        };
+    }
+
+    @Override
+    public ExprNode visit_get_expr(Expr.Get expr) {
+        ExprNode object = compile(expr.object);
+        return environment -> {
+            if (object.evaluate(environment) instanceof LoxInstance instance) {
+                Object value = expr.cache.get(instance, expr.name);
+                if (value instanceof UninitializedValue) {
+                    throw new LoxRuntimeError(expr.name, "Can't access uninitialized value.");
+                }
+                return value;
+            }
+            throw new LoxRuntimeError(expr.name, "Only instances have properties.");
+        };
+    }
+
+    @Override
+    public ExprNode visit_grouping_expr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visit_lambda_expr(Expr.Lambda expr) {
+        Stmt.Function fn = new Stmt.Function(expr.token, expr.params, expr.body);
+        fn.frame_escapes = expr.frame_escapes;
+        CompiledFunction code = compile_function(fn);
+        return environment -> new LoxFunction(fn, environment, code);
+    }
+
+    @Override
+    public ExprNode visit_literal_expr(Expr.Literal expr) {
+        Object value = expr.value;
+        return environment -> value;
+    }
+
+    @Override
+    public ExprNode visit_logical_expr(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        if (expr.operator.type == TokenType.OR) {
+            return environment -> is_truthy(left.evaluate(environment)) || is_truthy(right.evaluate(environment));
+        }
+        return environment -> is_truthy(left.evaluate(environment)) && is_truthy(right.evaluate(environment));
+    }
+
+    @Override
+    public ExprNode visit_set_expr(Expr.Set expr) {
+        ExprNode value = compile(expr.value);
+        ExprNode object = compile(expr.object);
+        return environment -> {
+            Object result = value.evaluate(environment);
+            if (object.evaluate(environment) instanceof LoxInstance instance) {
+                expr.cache.set(instance, expr.name, result);
+                return result;
+            }
+            throw new LoxRuntimeError(expr.name, "Expect instance for the setter.");
+        };
+    }
+
+    @Override
+    public ExprNode visit_this_expr(Expr.This expr) {
+        return lookup_variable(expr.keyword, expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExprNode visit_ternary_expr(Expr.Ternary expr) {
+        ExprNode condition = compile(expr.condition);
+        ExprNode if_true = compile(expr.if_true);
+        ExprNode otherwise = compile(expr.otherwise);
+        return environment -> is_truthy(condition.evaluate(environment))
+                ? if_true.evaluate(environment)
+                : otherwise.evaluate(environment);
+    }
+
+    @Override
+    public ExprNode visit_unary_expr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case MINUS: return environment -> {
+                Object value = right.evaluate(environment);
+                check_number_operand(operator, value);
+                return -(double)value;
+            };
+            case PLUS: return environment -> {
+                Object value = right.evaluate(environment);
+                check_number_operand(operator, value);
+                return (double)value;
+            };
+            case BANG: return environment -> !is_truthy(right.evaluate(environment));
+            case BITWISE_NOT: return environment -> {
+                Object value = right.evaluate(environment);
+                check_number_operand(operator, value);
+                return (double)~((long)(double)value);
+            };
+        }
+        return environment -> {
+            right.evaluate(environment);
+            return null;
+        };
+    }
+
+    @Override
+    public ExprNode visit_variable_expr(Expr.Variable expr) {
+        return lookup_variable(expr.name, expr.depth, expr.slot);
+    }
+
+    private ExprNode lookup_variable(Token name, int depth, int slot) {
+        switch (depth) {
+            case -1: return environment -> globals.get(name);
+            case 0: return environment -> environment.get(slot);
+            case 1: return environment -> environment.enclosing.get(slot);
+            default: return environment -> environment.get_at(depth, slot);
+        }
+    }
+}
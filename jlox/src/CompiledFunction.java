@@ -0,0 +1,7 @@
+package src;
+
+// A function body translated ahead of time by one of the compiling engines.
+// The frame already holds the parameters in their resolver-assigned slots.
+interface CompiledFunction {
+    Object call(Environment frame);
+}
@@ -0,0 +1,10 @@
+package src;
+
+// How a statement finished. The value of a 'return' is left in the interpreter
+// instead of being carried here, so finishing a statement never allocates.
+enum Completion {
+    NORMAL,
+    BREAK,
+    CONTINUE,
+    RETURN,
+}
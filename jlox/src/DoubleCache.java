@@ -0,0 +1,27 @@
+package src;
+
+// Boxed values for the small whole numbers counters and indices go through, so
+// producing one of them doesn't allocate a new Double.
+final class DoubleCache {
+    private static final int LOW = -128;
+    private static final int HIGH = 1024;
+    private static final Double[] cache = new Double[HIGH - LOW];
+
+    static {
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = (double)(i + LOW);
+        }
+    }
+
+    static Double box(double value) {
+        int whole = (int)value;
+        // -0.0 compares equal to 0 but prints differently, so it isn't shared.
+        if (whole == value && whole >= LOW && whole < HIGH && Double.doubleToRawLongBits(value) != Long.MIN_VALUE) {
+            return cache[whole - LOW];
+        }
+        return value;
+    }
+
+    private DoubleCache() {
+    }
+}
@@ -1,24 +1,28 @@
 package src;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+// A local scope. The resolver hands every local a slot in declaration order,
+// so defining a variable just appends to the frame and reading one is an index.
 public class Environment {
-    final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    Environment enclosing;
+    private Object[] values;
+    private int count = 0;
 
-    Environment() {
-        this.enclosing = null;
+    Environment(Environment enclosing) {
+        this(enclosing, 4);
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int capacity) {
         this.enclosing = enclosing;
+        this.values = new Object[Math.max(capacity, 1)];
     }
 
-    boolean find(Token name) {
-        if (values.containsKey(name.lexeme)) return true;
-        if (enclosing != null) return enclosing.find(name);
-        return false;
+    // Empties the frame for another call, see LoxFunction.enter().
+    void reset(Environment enclosing) {
+        this.enclosing = enclosing;
+        Arrays.fill(values, 0, count, null);
+        count = 0;
     }
 
     Environment ancestor(int distance) {
@@ -30,43 +34,27 @@ public class Environment {
         return environment;
     }
 
-    Object get_at(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object get(int slot) {
+        return values[slot];
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            Object value = values.get(name.lexeme);
-            if (value instanceof UninitializedValue) {
-                throw new LoxRuntimeError(name, "Can't access uninitialized variable '" + name.lexeme  + "'.");
-            }
-            return value;
-        }
-
-        if (enclosing != null) return enclosing.get(name);
-
-        throw new LoxRuntimeError(name, "Undefined variable '" + name.lexeme  + "'.");
+    Object get_at(int distance, int slot) {
+        return ancestor(distance).values[slot];
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    int define(Object value) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count] = value;
+        return count++;
     }
 
-    void assign_at(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assign(int slot, Object value) {
+        values[slot] = value;
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-
-        throw new LoxRuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    void assign_at(int distance, int slot, Object value) {
+        ancestor(distance).values[slot] = value;
     }
 }
@@ -0,0 +1,74 @@
+package src;
+
+import java.util.Arrays;
+
+class Globals {
+    // Compiled code holds on to the cell of every global it uses, so a name gets
+    // its cell the first time it is mentioned, even before it is defined.
+    static final class Cell {
+        private Object value = null;
+        private boolean defined = false;
+
+        Object get(Token name) {
+            if (!defined) {
+                throw new LoxRuntimeError(name, "Undefined variable '" + name.lexeme  + "'.");
+            }
+            if (value instanceof UninitializedValue) {
+                throw new LoxRuntimeError(name, "Can't access uninitialized variable '" + name.lexeme  + "'.");
+            }
+            return value;
+        }
+
+        Object assign(Token name, Object value) {
+            if (!defined) {
+                throw new LoxRuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+            }
+            this.value = value;
+            return value;
+        }
+    }
+
+    // Indexed by Symbol id. Ids are handed out densely, so this stays about as
+    // long as the number of names the process has seen.
+    private Cell[] cells = new Cell[64];
+
+    Cell cell(int symbol) {
+        check(symbol);
+        if (symbol >= cells.length) {
+            cells = Arrays.copyOf(cells, Math.max(2 * cells.length, symbol + 1));
+        }
+        Cell cell = cells[symbol];
+        if (cell == null) {
+            cell = new Cell();
+            cells[symbol] = cell;
+        }
+        return cell;
+    }
+
+    boolean find(Token name) {
+        check(name.symbol);
+        Cell cell = name.symbol < cells.length ? cells[name.symbol] : null;
+        return cell != null && cell.defined;
+    }
+
+    // A Token made by hand rather than by the scanner has no Symbol.
+    private static void check(int symbol) {
+        if (symbol < 0) {
+            throw new IllegalArgumentException("A global is looked up by Symbol id, got " + symbol + ".");
+        }
+    }
+
+    Object get(Token name) {
+        return cell(name.symbol).get(name);
+    }
+
+    void define(int symbol, Object value) {
+        Cell cell = cell(symbol);
+        cell.value = value;
+        cell.defined = true;
+    }
+
+    void assign(Token name, Object value) {
+        cell(name.symbol).assign(name, value);
+    }
+}
@@ -0,0 +1,74 @@
+package src;
+
+// Remembers what a property name turned out to be on the classes seen at one Get
+// or Set expression, so a repeated lookup is a comparison of classes. A class's
+// layout can't change after it's declared, so an entry never goes stale. Once
+// more than MAX_ENTRIES classes show up the site is megamorphic and everything
+// takes the uncached path.
+class InlineCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final LoxClass[] classes = new LoxClass[MAX_ENTRIES];
+    // The field's index in the class layout. When the name is a method instead,
+    // it's -1 and the method and its index are kept.
+    private final int[] indices = new int[MAX_ENTRIES];
+    private final LoxFunction[] methods = new LoxFunction[MAX_ENTRIES];
+    private final int[] method_indices = new int[MAX_ENTRIES];
+    private int count = 0;
+
+    Object get(LoxInstance instance, Token name) {
+        LoxClass lox_class = instance.lox_class;
+        for (int i = 0; i < count; i++) {
+            if (classes[i] == lox_class) {
+                int index = indices[i];
+                return index >= 0 ? instance.get_field(index) : instance.bound_method(method_indices[i]);
+            }
+        }
+
+        Object value = instance.get(name);
+        remember(lox_class, name);
+        return value;
+    }
+
+    // The method the name refers to, so a call can pass the receiver along
+    // instead of binding it. Null when the name is a field.
+    LoxFunction method(LoxInstance instance, Token name) {
+        LoxClass lox_class = instance.lox_class;
+        for (int i = 0; i < count; i++) {
+            if (classes[i] == lox_class) return methods[i];
+        }
+
+        int index = lox_class.field_index(name.symbol);
+        if (index < 0 && lox_class.method_index(name.symbol) < 0) {
+            instance.get(name); // Reports the missing property.
+        }
+        remember(lox_class, name);
+        return index >= 0 ? null : lox_class.find_method(name.symbol);
+    }
+
+    void set(LoxInstance instance, Token name, Object value) {
+        LoxClass lox_class = instance.lox_class;
+        for (int i = 0; i < count; i++) {
+            if (classes[i] == lox_class) {
+                instance.set_field(indices[i], value);
+                return;
+            }
+        }
+
+        // Only reached again if the set went through, so the name is a field.
+        instance.set(name, value);
+        remember(lox_class, name);
+    }
+
+    private void remember(LoxClass lox_class, Token name) {
+        if (count == MAX_ENTRIES) return;
+        int index = lox_class.field_index(name.symbol);
+        classes[count] = lox_class;
+        indices[count] = index;
+        if (index < 0) {
+            method_indices[count] = lox_class.method_index(name.symbol);
+            methods[count] = lox_class.method(method_indices[count]);
+        }
+        count += 1;
+    }
+}
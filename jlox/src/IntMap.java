@@ -0,0 +1,63 @@
+package src;
+
+import java.util.Arrays;
+
+// An open-addressing map from ints to ints, for the tables keyed by Symbol id:
+// no boxing, and a lookup is a multiply and usually a single probe. Neither keys
+// nor values can be negative, -1 marks an empty slot and a missing key.
+final class IntMap {
+    private static final int EMPTY = -1;
+
+    private int[] keys = new int[8];
+    private int[] values = new int[8];
+    private int size = 0;
+
+    IntMap() {
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private int first_slot(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (keys.length - 1);
+    }
+
+    int get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = first_slot(key); ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return values[slot];
+            if (keys[slot] == EMPTY) return -1;
+        }
+    }
+
+    boolean contains(int key) {
+        return get(key) >= 0;
+    }
+
+    void put(int key, int value) {
+        int mask = keys.length - 1;
+        int slot = first_slot(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) slot = (slot + 1) & mask;
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size += 1;
+        }
+        values[slot] = value;
+        if (2 * size > keys.length) grow();
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        int[] old_keys = keys;
+        int[] old_values = values;
+        keys = new int[2 * old_keys.length];
+        values = new int[2 * old_keys.length];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        for (int i = 0; i < old_keys.length; i++) {
+            if (old_keys[i] != EMPTY) put(old_keys[i], old_values[i]);
+        }
+    }
+}
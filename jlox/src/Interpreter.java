@@ -1,36 +1,50 @@
 package src;
 
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
+import java.io.PrintStream;
 import java.util.List;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Globals globals = new Globals();
+    private Environment environment = null;
 
-    private boolean broke = false;
-    private boolean continued = false;
+    // Set by a 'return' statement, taken by the call it returns from.
+    private Object return_value = null;
+    final TailCall tail_call = new TailCall();
 
-    Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+    // How many Lox functions are running. Going deeper than max_depth is a Lox
+    // stack overflow instead of a Java one.
+    static final int DEFAULT_MAX_DEPTH = 100_000;
+    int max_depth = DEFAULT_MAX_DEPTH;
+    int call_depth = 0;
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+    // Set when running with the JVM engine, so the functions the tree-walker
+    // creates still get compiled when possible.
+    JvmCompiler jit = null;
 
-            @Override
-            public String toString() {
-                return "<native fn clock>";
-            }
-        });
+    // Where print and println write, on every engine. Lox swaps in a buffered
+    // stream and flushes it itself.
+    PrintStream out = System.out;
+
+    static final LoxCallable clock = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return (double)System.currentTimeMillis() / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn clock>";
+        }
+    };
+
+    Interpreter() {
+        globals.define(Symbol.CLOCK.id, clock);
     }
 
     void interpret(List<Stmt> statements) {
@@ -43,16 +57,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private String stringify(Object value) {
+    static String stringify(Object value) {
         if (value == null) return "nil";
 
-        if (value instanceof Number) {
-            String text = value.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
+        if (value instanceof Double number) return NumberFormatter.format(number);
 
         return value.toString();
     }
@@ -61,167 +69,202 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    LoxFunction make_function(Stmt.Function declaration, Environment closure) {
+        CompiledFunction compiled = jit != null ? jit.compile_function(declaration) : null;
+        return new LoxFunction(declaration, closure, compiled);
     }
 
-    public void execute_block(List<Stmt> statements, Environment environment) {
+    private int define(Token name, Object value) {
+        if (environment == null) {
+            globals.define(name.symbol, value);
+            return -1;
+        }
+        return environment.define(value);
+    }
+
+    public Completion execute_block(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-            for (Stmt stmt : statements) {
-                if (this.broke || this.continued) break;
-                execute(stmt);
+            // Indexed, since an iterator would be allocated every time a loop
+            // body runs.
+            for (int i = 0; i < statements.size(); i++) {
+                Completion completion = execute(statements.get(i));
+                if (completion != Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
     }
 
+    // Runs a function body and gives back what its 'return' returned, if any.
+    Object execute_function(List<Stmt> body, Environment environment) {
+        if (execute_block(body, environment) != Completion.RETURN) return null;
+
+        Object value = return_value;
+        return_value = null;
+        return value;
+    }
+
     @Override
-    public Void visit_expression_stmt(Stmt.Expression stmt) {
+    public Completion visit_expression_stmt(Stmt.Expression stmt) {
         Object value = evaluate(stmt.expression);
         if (Lox.REPL) {
             String first_part = "expression statement '" + stmt.expression + "' has a value of '";
-            System.out.println(first_part + stringify(value) + "'.");
+            out.println(first_part + stringify(value) + "'.");
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visit_function_stmt(Stmt.Function stmt) {
-        if (environment.find(stmt.name)) {
+    public Completion visit_function_stmt(Stmt.Function stmt) {
+        if (globals.find(stmt.name)) {
             String message = "Function name '" + stmt.name.lexeme + "' is already in use.";
             throw new LoxRuntimeError(stmt.name, message);
         }
 
-        LoxFunction function = new LoxFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+        LoxFunction function = make_function(stmt, environment);
+        define(stmt.name, function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visit_print_stmt(Stmt.Print stmt) {
+    public Completion visit_print_stmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         if (stmt.newline)
-            System.out.println(stringify(value));
+            out.println(stringify(value));
         else
-            System.out.print(stringify(value));
-        return null;
+            out.print(stringify(value));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visit_return_stmt(Stmt.Return stmt) {
+    public Completion visit_return_stmt(Stmt.Return stmt) {
         Object value = null;
-        if (stmt.value != null) value = evaluate(stmt.value);
-        throw new LoxReturn(value);
+        if (stmt.tail_call) value = call((Expr.Call)stmt.value, true);
+        else if (stmt.value != null) value = evaluate(stmt.value);
+        return_value = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visit_var_stmt(Stmt.Var stmt) {
+    public Completion visit_var_stmt(Stmt.Var stmt) {
         Object value;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         } else {
             value = new UninitializedValue();
         }
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.name, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visit_if_stmt(Stmt.If stmt) {
+    public Completion visit_if_stmt(Stmt.If stmt) {
         Object condition = evaluate(stmt.condition);
         if (is_truthy(condition)) {
-            execute(stmt.then_branch);
-        } else {
-            boolean matched = false;
-            for (Else_If else_if : stmt.else_ifs) {
-                Object else_if_condition = evaluate(else_if.condition);
-                if (is_truthy(else_if_condition)) {
-                    execute(else_if.then_branch);
-                    matched = true;
-                    break;
-                }
+            return execute(stmt.then_branch);
+        }
+        for (Else_If else_if : stmt.else_ifs) {
+            Object else_if_condition = evaluate(else_if.condition);
+            if (is_truthy(else_if_condition)) {
+                return execute(else_if.then_branch);
             }
-            if (stmt.else_branch != null && !matched) execute(stmt.else_branch);
         }
-        return null;
+        if (stmt.else_branch != null) return execute(stmt.else_branch);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visit_break_stmt(Stmt.Break stmt) {
-        this.broke = true;
-        return null;
+    public Completion visit_break_stmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visit_continue_stmt(Stmt.Continue stmt) {
-        this.continued = true;
-        return null;
+    public Completion visit_continue_stmt(Stmt.Continue stmt) {
+        return Completion.CONTINUE;
     }
 
     @Override
-    public Void visit_class_stmt(Stmt.Class stmt) {
-        environment.define(stmt.name.lexeme, null);
-        Map<String, LoxFunction> methods = new HashMap<>();
-        for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment);
-            methods.put(method.name.lexeme, function);
-        }
-        Map<String, Object> fields = new HashMap<>();
-        for (Stmt.Var field : stmt.attributes) {
+    public Completion visit_class_stmt(Stmt.Class stmt) {
+        int slot = define(stmt.name, null);
+        LoxFunction[] methods = new LoxFunction[stmt.methods.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = make_function(stmt.methods.get(i), environment);
+        }
+        Object[] fields = new Object[stmt.attributes.size()];
+        for (int i = 0; i < fields.length; i++) {
+            Stmt.Var field = stmt.attributes.get(i);
             Object initializer;
             if (field.initializer != null) {
                 initializer = evaluate(field.initializer);
             } else {
                 initializer = new UninitializedValue();
             }
-            fields.put(field.name.lexeme, initializer);
+            fields[i] = initializer;
+        }
+        LoxClass lox_class = new LoxClass(stmt, methods, fields);
+        if (environment == null) {
+            globals.assign(stmt.name, lox_class);
+        } else {
+            environment.assign_at(0, slot, lox_class);
         }
-        LoxClass lox_class = new LoxClass(stmt.name.lexeme, methods, fields);
-        environment.assign(stmt.name, lox_class);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visit_while_stmt(Stmt.While stmt) {
+    public Completion visit_while_stmt(Stmt.While stmt) {
         while (is_truthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
-            if (this.broke) {
-                this.broke = false;
-                break;
-            }
-            if (this.continued) {
-                this.continued = false;
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+            if (completion == Completion.CONTINUE) {
+                // The increment was resolved inside the body's scope, so it
+                // runs in a frame standing in for the block it was cut out of.
                 if (stmt.body instanceof Stmt.Block block && stmt.has_increment)
-                    execute(block.statements.getLast());
+                    execute_block(List.of(block.statements.getLast()), new Environment(environment));
             }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visit_block_stmt(Stmt.Block stmt) {
-        execute_block(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visit_block_stmt(Stmt.Block stmt) {
+        if (stmt.frame_escapes) return execute_block(stmt.statements, new Environment(environment));
+
+        // Nothing holds on to the frame once the block is done, so its next run,
+        // usually the loop's next iteration, takes it back. A run nested in this
+        // one, by recursion, finds it taken and makes its own.
+        Environment frame = stmt.spare;
+        if (frame == null) {
+            frame = new Environment(environment);
+        } else {
+            stmt.spare = null;
+            frame.reset(environment);
+        }
+        try {
+            return execute_block(stmt.statements, frame);
+        } finally {
+            // Don't keep the locals alive until the next run.
+            frame.reset(null);
+            stmt.spare = frame;
+        }
     }
 
     @Override
     public Object visit_lambda_expr(Expr.Lambda expr) {
         Stmt.Function fn = new Stmt.Function(expr.token, expr.params, expr.body);
-        return new LoxFunction(fn, environment);
+        fn.frame_escapes = expr.frame_escapes;
+        return make_function(fn, environment);
     }
 
     @Override
     public Object visit_literal_expr(Expr.Literal expr) {
-        if (expr.value instanceof String str) {
-            return str.translateEscapes();
-        }
         return expr.value;
     }
 
@@ -229,15 +272,19 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visit_get_expr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance instance) {
-            Object value = instance.get(expr.name);
-            if (value instanceof UninitializedValue) {
-                throw new LoxRuntimeError(expr.name, "Can't access uninitialized value.");
-            }
-            return value;
+            return get_property(expr, instance);
         }
         throw new LoxRuntimeError(expr.name, "Only instances have properties.");
     }
 
+    private Object get_property(Expr.Get expr, LoxInstance instance) {
+        Object value = expr.cache.get(instance, expr.name);
+        if (value instanceof UninitializedValue) {
+            throw new LoxRuntimeError(expr.name, "Can't access uninitialized value.");
+        }
+        return value;
+    }
+
     @Override
     public Object visit_grouping_expr(Expr.Grouping expr) {
         return evaluate(expr.expression);
@@ -245,47 +292,118 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visit_variable_expr(Expr.Variable expr) {
-        return lookup_variable(expr.name, expr);
+        return lookup_variable(expr.name, expr.depth, expr.slot);
     }
 
-    private Object lookup_variable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.get_at(distance, name.lexeme);
+    private Object lookup_variable(Token name, int depth, int slot) {
+        if (depth >= 0) {
+            return environment.get_at(depth, slot);
         }
         return globals.get(name);
     }
 
     @Override
     public Object visit_unary_expr(Expr.Unary expr) {
+        if (expr.numeric) return DoubleCache.box(evaluate_double(expr));
+
         Object right = evaluate(expr.right);
+        if (expr.operator.type == TokenType.BANG) return !is_truthy(right);
 
+        check_number_operand(expr.operator, right);
         switch (expr.operator.type) {
-            case MINUS: {
-                check_number_operand(expr.operator, right);
-                return -(double)right;
+            case MINUS: return DoubleCache.box(-(double)right);
+            case BITWISE_NOT: return DoubleCache.box((double)~((long)(double)right));
+            default: return right;
+        }
+    }
+
+    // Evaluates an expression the resolver marked numeric, without boxing any of
+    // the intermediate results. Operands that aren't known to be numbers are
+    // evaluated normally and checked like the boxed path does.
+    private double evaluate_double(Expr expr) {
+        if (expr instanceof Expr.Literal literal) {
+            return (double)literal.value;
+        }
+        if (expr instanceof Expr.Grouping grouping) {
+            return evaluate_double(grouping.expression);
+        }
+        if (expr instanceof Expr.Unary unary) {
+            double right;
+            if (unary.right.numeric) {
+                right = evaluate_double(unary.right);
+            } else {
+                Object value = evaluate(unary.right);
+                check_number_operand(unary.operator, value);
+                right = (double)value;
             }
-            case PLUS: {
-                check_number_operand(expr.operator, right);
-                return (double)right;
+            switch (unary.operator.type) {
+                case MINUS: return -right;
+                case BITWISE_NOT: return (double)~((long)right);
+                default: return right;
             }
-            case BANG: {
-                return !is_truthy(right);
+        }
+        if (expr instanceof Expr.Binary binary) {
+            double left, right;
+            if (binary.left.numeric && binary.right.numeric) {
+                left = evaluate_double(binary.left);
+                right = evaluate_double(binary.right);
+            } else {
+                Object left_value = evaluate(binary.left);
+                Object right_value = evaluate(binary.right);
+                check_number_operands(left_value, binary.operator, right_value);
+                left = (double)left_value;
+                right = (double)right_value;
             }
-            case BITWISE_NOT: {
-                check_number_operand(expr.operator, right);
-                return (double)~((long)(double)right);
+            return arithmetic(binary.operator, left, right);
+        }
+        if (expr instanceof Expr.Assign assign && assign.value.numeric) {
+            double value = evaluate_double(assign.value);
+            assign_variable(assign, DoubleCache.box(value));
+            return value;
+        }
+        if (expr instanceof Expr.Ternary ternary) {
+            if (is_truthy(evaluate(ternary.condition))) return evaluate_double(ternary.if_true);
+            return evaluate_double(ternary.otherwise);
+        }
+        return (double)evaluate(expr);
+    }
+
+    private static double arithmetic(Token operator, double left, double right) {
+        switch (operator.type) {
+            case STAR: return left * right;
+            case SLASH: {
+                if (right == 0) throw new LoxRuntimeError(operator, "Can't divide by zero.");
+                return left / right;
             }
+            case MINUS: return left - right;
+            case PLUS: return left + right;
+            case BITWISE_AND: return (double)((long)left & (long)right);
+            case BITWISE_OR: return (double)((long)left | (long)right);
+            case BITWISE_XOR: return (double)((long)left ^ (long)right);
+            case LEFT_SHIFT: return (double)((long)left << (long)right);
+            case RIGHT_SHIFT: return (double)((long)left >> (long)right);
+        }
+        throw new IllegalStateException("Not an arithmetic operator: " + operator.type);
+    }
+
+    private static Object compare(Token operator, double left, double right) {
+        switch (operator.type) {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            case EQUAL_EQUAL: return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            case BANG_EQUAL: return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
         }
-        return null;
+        throw new IllegalStateException("Not a comparison operator: " + operator.type);
     }
 
-    private void check_number_operand(Token operator, Object operand) {
+    static void check_number_operand(Token operator, Object operand) {
         if (operand instanceof Number) return;
         throw new LoxRuntimeError(operator, "Operand must be a number.");
     }
 
-    private boolean is_truthy(Object value) {
+    static boolean is_truthy(Object value) {
         if (value == null) return false;
         if (value instanceof Number) return (double)value != 0;
         if (value instanceof Boolean) return (boolean)value;
@@ -295,25 +413,59 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visit_assign_expr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
+        assign_variable(expr, value);
+        return value;
+    }
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assign_at(distance, expr.name, value);
+    private void assign_variable(Expr.Assign expr, Object value) {
+        if (expr.depth >= 0) {
+            environment.assign_at(expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
-
-        return value;
     }
 
     @Override
     public Object visit_call_expr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        return call(expr, false);
+    }
+
+    // A call to a LoxFunction in tail position isn't made here: it's returned
+    // as the TailCall for LoxFunction.run() to make.
+    private Object call(Expr.Call expr, boolean tail) {
+        // For 'object.method(...)' the method is called with the receiver as is,
+        // without making a bound method first.
+        Object callee;
+        LoxInstance receiver = null;
+        if (expr.callee instanceof Expr.Get get) {
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance instance)) {
+                throw new LoxRuntimeError(get.name, "Only instances have properties.");
+            }
+            LoxFunction method = get.cache.method(instance, get.name);
+            if (method != null) {
+                callee = method;
+                receiver = instance;
+            } else {
+                callee = get_property(get, instance);
+            }
+        } else {
+            callee = evaluate(expr.callee);
+        }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            Object value = evaluate(argument);
-            arguments.add(value);
+        // Up to three arguments are passed as they are, more go in an array.
+        int count = expr.arguments.size();
+        Object a = null, b = null, c = null;
+        Object[] rest = null;
+        if (count > 3) {
+            rest = new Object[count];
+            for (int i = 0; i < count; i++) {
+                rest[i] = evaluate(expr.arguments.get(i));
+            }
+        } else {
+            if (count > 0) a = evaluate(expr.arguments.get(0));
+            if (count > 1) b = evaluate(expr.arguments.get(1));
+            if (count > 2) c = evaluate(expr.arguments.get(2));
         }
 
         if (!(callee instanceof LoxCallable function)) {
@@ -321,106 +473,72 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     "Can only call functions and classes.");
         }
 
-        if (arguments.size() != function.arity()) {
-            String message = "Expected " + function.arity() + " arguments but found " + arguments.size() + ".";
+        if (count != function.arity()) {
+            String message = "Expected " + function.arity() + " arguments but found " + count + ".";
             throw new LoxRuntimeError(expr.paren, message);
         }
 
-        return function.call(this, arguments);
+        if (tail && function instanceof LoxFunction lox_function) {
+            return tail_call.set(lox_function, receiver, a, b, c, rest);
+        }
+        if (receiver != null) return ((LoxFunction)function).call_method(this, receiver, a, b, c, rest);
+        switch (count) {
+            case 0: return function.call0(this);
+            case 1: return function.call1(this, a);
+            case 2: return function.call2(this, a, b);
+            case 3: return function.call3(this, a, b, c);
+            default: return function.call(this, rest);
+        }
     }
 
     @Override
     public Object visit_binary_expr(Expr.Binary expr) {
+        if (expr.numeric) return DoubleCache.box(evaluate_double(expr));
+        if (expr.left.numeric && expr.right.numeric) {
+            return compare(expr.operator, evaluate_double(expr.left), evaluate_double(expr.right));
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
         switch (expr.operator.type) {
-            case STAR: {
-                check_number_operands(left, expr.operator, right);
-                return (double)left * (double)right;
-            }
-            case SLASH: {
-                check_number_operands(left, expr.operator, right);
-                if ((double)right == 0)
-                    throw new LoxRuntimeError(expr.operator, "Can't divide by zero.");
-                return (double)left / (double)right;
-            }
-            case MINUS: {
-                check_number_operands(left, expr.operator, right);
-                return (double)left - (double)right;
-            }
             case PLUS: {
                 if (left instanceof Number && right instanceof Number)
-                    return (double)left + (double)right;
-                if (left instanceof String && right instanceof String)
-                    return (String)left + (String)right;
-                if (left instanceof String && right instanceof Number)
-                    return (String)left + stringify(right);
-                if (left instanceof Number && right instanceof String)
-                    return stringify(left) + (String)right;
+                    return DoubleCache.box((double)left + (double)right);
+                if (left instanceof CharSequence a && right instanceof CharSequence b)
+                    return LoxString.concat(a, b);
+                if (left instanceof CharSequence a && right instanceof Number)
+                    return LoxString.concat(a, (double)right);
+                if (left instanceof Number && right instanceof CharSequence b)
+                    return LoxString.concat(stringify(left), b);
                 throw new LoxRuntimeError(expr.operator, "Operands must be both numbers or either one of them a string.");
             }
 
-            case GREATER: {
-                check_number_operands(left, expr.operator, right);
-                return (double)left > (double)right;
-            }
-            case LESS: {
-                check_number_operands(left, expr.operator, right);
-                return (double)left < (double)right;
-            }
-            case GREATER_EQUAL: {
-                check_number_operands(left, expr.operator, right);
-                return (double)left >= (double)right;
-            }
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
             case LESS_EQUAL: {
                 check_number_operands(left, expr.operator, right);
-                return (double)left <= (double)right;
+                return compare(expr.operator, (double)left, (double)right);
             }
 
             case EQUAL_EQUAL: return is_equal(left, right);
             case BANG_EQUAL: return !is_equal(left, right);
 
-            case BITWISE_AND: {
-                check_number_operands(left, expr.operator, right);
-                return (double)((long)(double)left & (long)(double)right);
-            }
-            case BITWISE_OR: {
-                check_number_operands(left, expr.operator, right);
-                return (double)((long)(double)left | (long)(double)right);
-            }
-            case BITWISE_XOR: {
-                check_number_operands(left, expr.operator, right);
-                return (double)((long)(double)left ^ (long)(double)right);
-            }
-            case LEFT_SHIFT: {
+            default: {
                 check_number_operands(left, expr.operator, right);
-                return (double)((long)(double)left << (long)(double)right);
-            }
-            case RIGHT_SHIFT: {
-                check_number_operands(left, expr.operator, right);
-                return (double)((long)(double)left >> (long)(double)right);
+                return DoubleCache.box(arithmetic(expr.operator, (double)left, (double)right));
             }
         }
-        return null;
     }
 
     @Override
     public Object visit_logical_expr(Expr.Logical expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
-        boolean a = is_truthy(left), b = is_truthy(right);
-
-        switch (expr.operator.type) {
-            case OR: {
-                if (a) return true;
-            }
-            case AND: {
-                if (!a) return false;
-            }
-            default: return b;
-        }
+        // The right operand is only evaluated when it decides the result.
+        boolean left = is_truthy(evaluate(expr.left));
+        if (expr.operator.type == TokenType.OR && left) return true;
+        if (expr.operator.type == TokenType.AND && !left) return false;
+        return is_truthy(evaluate(expr.right));
     }
 
     @Override
@@ -428,37 +546,36 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object value = evaluate(expr.value);
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance instance) {
-            instance.set(expr.name, value);
+            expr.cache.set(instance, expr.name, value);
             return value;
         }
         throw new LoxRuntimeError(expr.name, "Expect instance for the setter.");
     }
 
-    private void check_number_operands(Object a, Token operator, Object b) {
+    static void check_number_operands(Object a, Token operator, Object b) {
         if (a instanceof Number && b instanceof Number) return;
         throw new LoxRuntimeError(operator, "Operands must be numbers.");
     }
 
-    private boolean is_equal(Object a, Object b) {
+    static boolean is_equal(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null || b == null) return false;
+        if (a instanceof LoxString || b instanceof LoxString) {
+            return a instanceof CharSequence && b instanceof CharSequence && a.toString().equals(b.toString());
+        }
         return a.equals(b);
     }
 
     @Override
     public Object visit_this_expr(Expr.This expr) {
-        return lookup_variable(expr.keyword, expr);
+        return lookup_variable(expr.keyword, expr.depth, expr.slot);
     }
 
     @Override
     public Object visit_ternary_expr(Expr.Ternary expr) {
-        Object condition = evaluate(expr.condition);
-        Object if_true = evaluate(expr.if_true);
-        Object otherwise = evaluate(expr.otherwise);
-
-        if (is_truthy(condition)) {
-            return if_true;
+        if (is_truthy(evaluate(expr.condition))) {
+            return evaluate(expr.if_true);
         }
-        return otherwise;
+        return evaluate(expr.otherwise);
     }
 }
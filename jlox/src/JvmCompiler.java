@@ -0,0 +1,569 @@
+package src;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import src.ClassFileWriter.Code;
+import src.ClassFileWriter.Label;
+
+// Translates function bodies and top level scripts to JVM bytecode, loaded as
+// hidden classes implementing CompiledFunction. Locals of the function (and of
+// blocks in the script) become JVM locals, variables of enclosing functions are
+// read through the frame, and the operators call into JvmRuntime.
+//
+// Functions containing constructs it doesn't handle (closures, classes, 'this')
+// are left to the tree-walker, as are such statements at the top level.
+class JvmCompiler {
+    private static final String CLASS_NAME = "src/LoxCompiled";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUNTIME = "src/JvmRuntime";
+    private static final String ENVIRONMENT = "src/Environment";
+    private static final String TOKEN = "src/Token";
+    private static final String CELL = "src/Globals$Cell";
+    private static final String CALL_DESCRIPTOR = "(Lsrc/Environment;)Ljava/lang/Object;";
+    private static final String UNARY_DESCRIPTOR = "(Ljava/lang/Object;Lsrc/Token;)Ljava/lang/Object;";
+    private static final String BINARY_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/Object;Lsrc/Token;)Ljava/lang/Object;";
+    private static final String LOGICAL_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+
+    // Past this, the 16 bit branch offsets and one byte local indices stop fitting.
+    private static final int MAX_CODE_LENGTH = 32767;
+    private static final int MAX_LOCALS = 255;
+
+    // What the hidden classes implement, so they can be told apart from the
+    // other engines' code.
+    interface Function extends CompiledFunction {
+    }
+
+    private final JvmRuntime runtime;
+    private final Globals globals;
+    private final Map<List<Stmt>, CompiledFunction> functions = new IdentityHashMap<>();
+    private final Map<List<Stmt>, Boolean> unsupported = new IdentityHashMap<>();
+
+    JvmCompiler(Interpreter interpreter) {
+        this.runtime = new JvmRuntime(interpreter);
+        this.globals = interpreter.globals;
+    }
+
+    void interpret(List<Stmt> statements) {
+        try {
+            Emitter emitter = new Emitter(false);
+            for (Stmt stmt : statements) {
+                if (emitter.supports(stmt, true)) {
+                    emitter.statement(stmt);
+                } else {
+                    emitter.fallback(stmt);
+                }
+            }
+            CompiledFunction script = emitter.finish();
+            if (script != null) {
+                script.call(null);
+            } else {
+                for (Stmt stmt : statements) runtime.execute(stmt);
+            }
+        } catch (LoxRuntimeError error) {
+            Lox.runtime_error(error);
+        }
+    }
+
+    // Keyed by the body so lambdas, which get a new declaration every time they
+    // are evaluated, are only compiled once.
+    CompiledFunction compile_function(Stmt.Function declaration) {
+        CompiledFunction function = functions.get(declaration.body);
+        if (function != null || unsupported.containsKey(declaration.body)) return function;
+
+        Emitter emitter = new Emitter(true);
+        for (Stmt stmt : declaration.body) {
+            if (!emitter.supports(stmt, false)) {
+                unsupported.put(declaration.body, true);
+                return null;
+            }
+        }
+        emitter.parameters(declaration.params.size());
+        for (Stmt stmt : declaration.body) {
+            emitter.statement(stmt);
+        }
+        function = emitter.finish();
+        if (function == null) {
+            unsupported.put(declaration.body, true);
+        } else {
+            functions.put(declaration.body, function);
+        }
+        return function;
+    }
+
+    private class Emitter {
+        private final ClassFileWriter writer = new ClassFileWriter(CLASS_NAME);
+        private final Code code = new Code(2);
+        private final List<Object> constants = new ArrayList<>();
+        private final boolean in_function;
+
+        // One entry per resolver scope inside the function: the JVM local of each slot.
+        private final List<List<Integer>> scopes = new ArrayList<>();
+        private final List<Label> break_labels = new ArrayList<>();
+        private final List<Label> continue_labels = new ArrayList<>();
+        private int next_local = 2;
+        private int loop_depth = 0;
+
+        Emitter(boolean in_function) {
+            this.in_function = in_function;
+        }
+
+        void parameters(int count) {
+            scopes.add(new ArrayList<>());
+            for (int slot = 0; slot < count; slot++) {
+                code.aload(1);
+                code.push_int(writer, slot);
+                invoke_virtual(ENVIRONMENT, "get", "(I)Ljava/lang/Object;", 1, true);
+                declare_local();
+            }
+        }
+
+        CompiledFunction finish() {
+            code.op(Code.ACONST_NULL, 1);
+            code.op(Code.ARETURN, -1);
+            if (code.length() > MAX_CODE_LENGTH || next_local > MAX_LOCALS) return null;
+
+            writer.field(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, "constants", "[Ljava/lang/Object;");
+            writer.field(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, "runtime", "L" + RUNTIME + ";");
+
+            Code constructor = new Code(3);
+            constructor.aload(0);
+            constructor.invoke(Code.INVOKESPECIAL, writer.method_ref(OBJECT, "<init>", "()V"), 1, false);
+            constructor.aload(0);
+            constructor.aload(1);
+            constructor.op_u2(Code.PUTFIELD, writer.field_ref(CLASS_NAME, "constants", "[Ljava/lang/Object;"), -2);
+            constructor.aload(0);
+            constructor.aload(2);
+            constructor.op_u2(Code.PUTFIELD, writer.field_ref(CLASS_NAME, "runtime", "L" + RUNTIME + ";"), -2);
+            constructor.op(Code.RETURN, 0);
+            writer.method(ClassFileWriter.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;L" + RUNTIME + ";)V", constructor);
+            writer.method(ClassFileWriter.ACC_PUBLIC, "call", CALL_DESCRIPTOR, code);
+
+            byte[] bytes = writer.to_bytes(OBJECT, "src/JvmCompiler$Function");
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+                MethodType type = MethodType.methodType(void.class, Object[].class, JvmRuntime.class);
+                return (CompiledFunction)lookup.findConstructor(lookup.lookupClass(), type)
+                                               .invoke(constants.toArray(), runtime);
+            } catch (Throwable error) {
+                throw new IllegalStateException("Couldn't load compiled Lox code.", error);
+            }
+        }
+
+        // Checking.
+
+        boolean supports(Stmt stmt, boolean top_level) {
+            if (stmt instanceof Stmt.Expression expression) return supports(expression.expression);
+            if (stmt instanceof Stmt.Print print) return supports(print.expression);
+            if (stmt instanceof Stmt.Var var) return var.initializer == null || supports(var.initializer);
+            if (stmt instanceof Stmt.Return return_stmt) return in_function && (return_stmt.value == null || supports(return_stmt.value));
+            if (stmt instanceof Stmt.Break || stmt instanceof Stmt.Continue) return loop_depth > 0;
+            if (stmt instanceof Stmt.Function) return top_level && !in_function;
+            if (stmt instanceof Stmt.Block block) {
+                for (Stmt inner : block.statements) {
+                    if (!supports(inner, false)) return false;
+                }
+                return true;
+            }
+            if (stmt instanceof Stmt.If if_stmt) {
+                if (!supports(if_stmt.condition) || !supports(if_stmt.then_branch, false)) return false;
+                for (Else_If else_if : if_stmt.else_ifs) {
+                    if (!supports(else_if.condition) || !supports(else_if.then_branch, false)) return false;
+                }
+                return if_stmt.else_branch == null || supports(if_stmt.else_branch, false);
+            }
+            if (stmt instanceof Stmt.While while_stmt) {
+                loop_depth += 1;
+                boolean supported = supports(while_stmt.condition) && supports(while_stmt.body, false);
+                loop_depth -= 1;
+                return supported;
+            }
+            return false;
+        }
+
+        private boolean supports(Expr expr) {
+            if (expr instanceof Expr.Literal || expr instanceof Expr.Variable) return true;
+            if (expr instanceof Expr.Assign assign) return supports(assign.value);
+            if (expr instanceof Expr.Grouping grouping) return supports(grouping.expression);
+            if (expr instanceof Expr.Unary unary) return supports(unary.right);
+            if (expr instanceof Expr.Binary binary) return supports(binary.left) && supports(binary.right);
+            if (expr instanceof Expr.Logical logical) return supports(logical.left) && supports(logical.right);
+            if (expr instanceof Expr.Ternary ternary) {
+                return supports(ternary.condition) && supports(ternary.if_true) && supports(ternary.otherwise);
+            }
+            if (expr instanceof Expr.Get get) return supports(get.object);
+            if (expr instanceof Expr.Set set) return supports(set.object) && supports(set.value);
+            if (expr instanceof Expr.Call call) {
+                if (!supports(call.callee)) return false;
+                for (Expr argument : call.arguments) {
+                    if (!supports(argument)) return false;
+                }
+                return true;
+            }
+            return false;
+        }
+
+        // Statements.
+
+        void fallback(Stmt stmt) {
+            code.aload(0);
+            code.op_u2(Code.GETFIELD, writer.field_ref(CLASS_NAME, "runtime", "L" + RUNTIME + ";"), 0);
+            constant(stmt, "src/Stmt");
+            invoke_virtual(RUNTIME, "execute", "(Lsrc/Stmt;)V", 2, false);
+        }
+
+        void statement(Stmt stmt) {
+            if (stmt instanceof Stmt.Expression expression) {
+                if (Lox.REPL) {
+                    load_runtime();
+                    expression(expression.expression);
+                    constant(expression.expression, "src/Expr");
+                    invoke_virtual(RUNTIME, "expression_statement", "(Ljava/lang/Object;Lsrc/Expr;)V", 3, false);
+                } else {
+                    expression(expression.expression);
+                    code.op(Code.POP, -1);
+                }
+            } else if (stmt instanceof Stmt.Print print) {
+                load_runtime();
+                expression(print.expression);
+                invoke_virtual(RUNTIME, print.newline ? "println" : "print", "(Ljava/lang/Object;)V", 2, false);
+            } else if (stmt instanceof Stmt.Var var) {
+                var_statement(var);
+            } else if (stmt instanceof Stmt.Return return_stmt) {
+                if (return_stmt.tail_call) {
+                    call((Expr.Call)return_stmt.value, "tail_call");
+                } else if (return_stmt.value != null) {
+                    expression(return_stmt.value);
+                } else {
+                    code.op(Code.ACONST_NULL, 1);
+                }
+                code.op(Code.ARETURN, -1);
+            } else if (stmt instanceof Stmt.Break) {
+                code.jump(Code.GOTO, break_labels.getLast());
+            } else if (stmt instanceof Stmt.Continue) {
+                code.jump(Code.GOTO, continue_labels.getLast());
+            } else if (stmt instanceof Stmt.Function function) {
+                load_runtime();
+                constant(function, "src/Stmt$Function");
+                invoke_virtual(RUNTIME, "define_function", "(Lsrc/Stmt$Function;)V", 2, false);
+            } else if (stmt instanceof Stmt.Block block) {
+                scopes.add(new ArrayList<>());
+                for (Stmt inner : block.statements) statement(inner);
+                scopes.removeLast();
+            } else if (stmt instanceof Stmt.If if_stmt) {
+                if_statement(if_stmt);
+            } else if (stmt instanceof Stmt.While while_stmt) {
+                while_statement(while_stmt);
+            }
+        }
+
+        private void var_statement(Stmt.Var var) {
+            if (scopes.isEmpty()) {
+                load_runtime();
+                constant(var.name, TOKEN);
+                initializer(var);
+                invoke_virtual(RUNTIME, "define_global", "(Lsrc/Token;Ljava/lang/Object;)V", 3, false);
+            } else {
+                initializer(var);
+                declare_local();
+            }
+        }
+
+        private void initializer(Stmt.Var var) {
+            if (var.initializer != null) {
+                expression(var.initializer);
+            } else {
+                invoke_static("uninitialized", "()Ljava/lang/Object;", 0, true);
+            }
+        }
+
+        private void declare_local() {
+            int local = next_local++;
+            scopes.getLast().add(local);
+            code.astore(local);
+        }
+
+        private void condition(Expr condition, Label if_false) {
+            expression(condition);
+            invoke_static("is_truthy", "(Ljava/lang/Object;)Z", 1, true);
+            code.jump(Code.IFEQ, if_false);
+        }
+
+        // The branches of the operators below leave their value in a temporary,
+        // so nothing is on the stack where they join.
+        private void logical(Expr.Logical expr) {
+            int temporary = next_local++;
+            Label decided = new Label();
+            Label end = new Label();
+            // 'or' is decided by a truthy operand, 'and' by a falsy one.
+            boolean or = expr.operator.type == TokenType.OR;
+            int jump = or ? Code.IFNE : Code.IFEQ;
+            for (Expr operand : List.of(expr.left, expr.right)) {
+                expression(operand);
+                invoke_static("is_truthy", "(Ljava/lang/Object;)Z", 1, true);
+                code.jump(jump, decided);
+            }
+            literal(!or);
+            code.astore(temporary);
+            code.jump(Code.GOTO, end);
+            code.mark(decided);
+            literal(or);
+            code.astore(temporary);
+            code.mark(end);
+            code.aload(temporary);
+        }
+
+        private void ternary(Expr.Ternary expr) {
+            int temporary = next_local++;
+            Label otherwise = new Label();
+            Label end = new Label();
+            condition(expr.condition, otherwise);
+            expression(expr.if_true);
+            code.astore(temporary);
+            code.jump(Code.GOTO, end);
+            code.mark(otherwise);
+            expression(expr.otherwise);
+            code.astore(temporary);
+            code.mark(end);
+            code.aload(temporary);
+        }
+
+        private void if_statement(Stmt.If stmt) {
+            Label end = new Label();
+            Label next = new Label();
+            condition(stmt.condition, next);
+            statement(stmt.then_branch);
+            code.jump(Code.GOTO, end);
+            code.mark(next);
+            for (Else_If else_if : stmt.else_ifs) {
+                next = new Label();
+                condition(else_if.condition, next);
+                statement(else_if.then_branch);
+                code.jump(Code.GOTO, end);
+                code.mark(next);
+            }
+            if (stmt.else_branch != null) statement(stmt.else_branch);
+            code.mark(end);
+        }
+
+        private void while_statement(Stmt.While stmt) {
+            Label start = new Label();
+            Label end = new Label();
+            Label increment = new Label();
+            boolean has_increment = stmt.has_increment && stmt.body instanceof Stmt.Block;
+
+            break_labels.add(end);
+            continue_labels.add(has_increment ? increment : start);
+            loop_depth += 1;
+
+            code.mark(start);
+            condition(stmt.condition, end);
+            if (has_increment) {
+                // The increment is the last statement of the body block, and
+                // 'continue' has to skip to it rather than to the condition.
+                List<Stmt> body = ((Stmt.Block)stmt.body).statements;
+                scopes.add(new ArrayList<>());
+                for (int i = 0; i < body.size() - 1; i++) statement(body.get(i));
+                code.mark(increment);
+                statement(body.getLast());
+                scopes.removeLast();
+            } else {
+                statement(stmt.body);
+            }
+            code.jump(Code.GOTO, start);
+            code.mark(end);
+
+            loop_depth -= 1;
+            break_labels.removeLast();
+            continue_labels.removeLast();
+        }
+
+        // Expressions. Each one leaves exactly one value on the stack.
+
+        private void expression(Expr expr) {
+            if (expr instanceof Expr.Literal literal) {
+                literal(literal.value);
+            } else if (expr instanceof Expr.Grouping grouping) {
+                expression(grouping.expression);
+            } else if (expr instanceof Expr.Variable variable) {
+                variable(variable.name, variable.depth, variable.slot);
+            } else if (expr instanceof Expr.Assign assign) {
+                assign(assign);
+            } else if (expr instanceof Expr.Unary unary) {
+                unary(unary);
+            } else if (expr instanceof Expr.Binary binary) {
+                binary(binary);
+            } else if (expr instanceof Expr.Logical logical) {
+                logical(logical);
+            } else if (expr instanceof Expr.Ternary ternary) {
+                ternary(ternary);
+            } else if (expr instanceof Expr.Get get) {
+                expression(get.object);
+                constant(get.name, TOKEN);
+                invoke_static("get", UNARY_DESCRIPTOR, 2, true);
+            } else if (expr instanceof Expr.Set set) {
+                expression(set.value);
+                expression(set.object);
+                constant(set.name, TOKEN);
+                invoke_static("set", BINARY_DESCRIPTOR, 3, true);
+            } else if (expr instanceof Expr.Call call) {
+                call(call, "call");
+            }
+        }
+
+        private void literal(Object value) {
+            if (value == null) {
+                code.op(Code.ACONST_NULL, 1);
+            } else if (value instanceof Boolean bool) {
+                int field = writer.field_ref("java/lang/Boolean", bool ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+                code.op_u2(Code.GETSTATIC, field, 1);
+            } else if (value instanceof String str) {
+                constant(str, "java/lang/String");
+            } else {
+                constant(value, "java/lang/Double");
+            }
+        }
+
+        // Resolver depths count scopes outwards from the use; the ones inside this
+        // function are JVM locals, the rest are reached through the frame, which
+        // stands for the function's own (outermost) scope.
+        private void variable(Token name, int depth, int slot) {
+            if (depth < 0) {
+                constant(globals.cell(name.symbol), CELL);
+                constant(name, TOKEN);
+                invoke_virtual(CELL, "get", "(Lsrc/Token;)Ljava/lang/Object;", 2, true);
+            } else if (depth < scopes.size()) {
+                code.aload(scopes.get(scopes.size() - 1 - depth).get(slot));
+            } else {
+                code.aload(1);
+                code.push_int(writer, depth - (scopes.size() - 1));
+                code.push_int(writer, slot);
+                invoke_virtual(ENVIRONMENT, "get_at", "(II)Ljava/lang/Object;", 3, true);
+            }
+        }
+
+        private void assign(Expr.Assign expr) {
+            if (expr.depth < 0) {
+                constant(globals.cell(expr.name.symbol), CELL);
+                constant(expr.name, TOKEN);
+                expression(expr.value);
+                invoke_virtual(CELL, "assign", "(Lsrc/Token;Ljava/lang/Object;)Ljava/lang/Object;", 3, true);
+            } else if (expr.depth < scopes.size()) {
+                expression(expr.value);
+                code.op(Code.DUP, 1);
+                code.astore(scopes.get(scopes.size() - 1 - expr.depth).get(expr.slot));
+            } else {
+                int temporary = next_local++;
+                expression(expr.value);
+                code.astore(temporary);
+                code.aload(1);
+                code.push_int(writer, expr.depth - (scopes.size() - 1));
+                code.push_int(writer, expr.slot);
+                code.aload(temporary);
+                invoke_virtual(ENVIRONMENT, "assign_at", "(IILjava/lang/Object;)V", 4, false);
+                code.aload(temporary);
+            }
+        }
+
+        private void unary(Expr.Unary expr) {
+            expression(expr.right);
+            switch (expr.operator.type) {
+                case MINUS: unary_call("negate", expr.operator); break;
+                case PLUS: unary_call("plus", expr.operator); break;
+                case BITWISE_NOT: unary_call("bitwise_not", expr.operator); break;
+                case BANG: invoke_static("not", "(Ljava/lang/Object;)Ljava/lang/Object;", 1, true); break;
+                default: {
+                    code.op(Code.POP, -1);
+                    code.op(Code.ACONST_NULL, 1);
+                }
+            }
+        }
+
+        private void unary_call(String name, Token operator) {
+            constant(operator, TOKEN);
+            invoke_static(name, UNARY_DESCRIPTOR, 2, true);
+        }
+
+        private void binary(Expr.Binary expr) {
+            expression(expr.left);
+            expression(expr.right);
+            String name;
+            switch (expr.operator.type) {
+                case STAR: name = "multiply"; break;
+                case SLASH: name = "divide"; break;
+                case MINUS: name = "subtract"; break;
+                case PLUS: name = "add"; break;
+                case GREATER: name = "greater"; break;
+                case GREATER_EQUAL: name = "greater_equal"; break;
+                case LESS: name = "less"; break;
+                case LESS_EQUAL: name = "less_equal"; break;
+                case BITWISE_AND: name = "bitwise_and"; break;
+                case BITWISE_OR: name = "bitwise_or"; break;
+                case BITWISE_XOR: name = "bitwise_xor"; break;
+                case LEFT_SHIFT: name = "left_shift"; break;
+                case RIGHT_SHIFT: name = "right_shift"; break;
+                case EQUAL_EQUAL: {
+                    invoke_static("equal", LOGICAL_DESCRIPTOR, 2, true);
+                    return;
+                }
+                case BANG_EQUAL: {
+                    invoke_static("not_equal", LOGICAL_DESCRIPTOR, 2, true);
+                    return;
+                }
+                default: {
+                    code.op(Code.POP, -1);
+                    code.op(Code.POP, -1);
+                    code.op(Code.ACONST_NULL, 1);
+                    return;
+                }
+            }
+            constant(expr.operator, TOKEN);
+            invoke_static(name, BINARY_DESCRIPTOR, 3, true);
+        }
+
+        // 'method' is JvmRuntime.call, or tail_call for a call in tail position.
+        private void call(Expr.Call expr, String method) {
+            load_runtime();
+            expression(expr.callee);
+            code.push_int(writer, expr.arguments.size());
+            code.op_u2(Code.ANEWARRAY, writer.class_ref(OBJECT), 0);
+            for (int i = 0; i < expr.arguments.size(); i++) {
+                code.op(Code.DUP, 1);
+                code.push_int(writer, i);
+                expression(expr.arguments.get(i));
+                code.op(Code.AASTORE, -3);
+            }
+            constant(expr.paren, TOKEN);
+            invoke_virtual(RUNTIME, method, "(Ljava/lang/Object;[Ljava/lang/Object;Lsrc/Token;)Ljava/lang/Object;", 4, true);
+        }
+
+        // Helpers.
+
+        private void load_runtime() {
+            code.aload(0);
+            code.op_u2(Code.GETFIELD, writer.field_ref(CLASS_NAME, "runtime", "L" + RUNTIME + ";"), 0);
+        }
+
+        private void constant(Object value, String type) {
+            int index = constants.size();
+            constants.add(value);
+            code.aload(0);
+            code.op_u2(Code.GETFIELD, writer.field_ref(CLASS_NAME, "constants", "[Ljava/lang/Object;"), 0);
+            code.push_int(writer, index);
+            code.op(Code.AALOAD, -1);
+            code.op_u2(Code.CHECKCAST, writer.class_ref(type), 0);
+        }
+
+        private void invoke_static(String name, String descriptor, int arguments, boolean returns_value) {
+            code.invoke(Code.INVOKESTATIC, writer.method_ref(RUNTIME, name, descriptor), arguments, returns_value);
+        }
+
+        private void invoke_virtual(String owner, String name, String descriptor, int arguments, boolean returns_value) {
+            code.invoke(Code.INVOKEVIRTUAL, writer.method_ref(owner, name, descriptor), arguments, returns_value);
+        }
+    }
+}
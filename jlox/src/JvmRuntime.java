@@ -0,0 +1,195 @@
+package src;
+
+import static src.Interpreter.check_number_operand;
+import static src.Interpreter.check_number_operands;
+import static src.Interpreter.stringify;
+
+// Everything the classes generated by the JvmCompiler call back into. The
+// instance methods need the interpreter's state, the static ones are the
+// operators, kept small so the JIT inlines them into the generated code.
+class JvmRuntime {
+    private final Interpreter interpreter;
+    private final Globals globals;
+
+    JvmRuntime(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    void define_global(Token name, Object value) {
+        globals.define(name.symbol, value);
+    }
+
+    void define_function(Stmt.Function declaration) {
+        if (globals.find(declaration.name)) {
+            String message = "Function name '" + declaration.name.lexeme + "' is already in use.";
+            throw new LoxRuntimeError(declaration.name, message);
+        }
+        globals.define(declaration.name.symbol, interpreter.make_function(declaration, null));
+    }
+
+    // Top level statements the compiler doesn't handle run on the tree-walker.
+    void execute(Stmt stmt) {
+        interpreter.execute(stmt);
+    }
+
+    void expression_statement(Object value, Expr expr) {
+        String first_part = "expression statement '" + expr + "' has a value of '";
+        interpreter.out.println(first_part + stringify(value) + "'.");
+    }
+
+    Object call(Object callee, Object[] arguments, Token paren) {
+        if (!(callee instanceof LoxCallable function)) {
+            throw new LoxRuntimeError(paren, "Can only call functions and classes.");
+        }
+        if (arguments.length != function.arity()) {
+            String message = "Expected " + function.arity() + " arguments but found " + arguments.length + ".";
+            throw new LoxRuntimeError(paren, message);
+        }
+        return function.call(interpreter, arguments);
+    }
+
+    // Like call(), but a LoxFunction is left for LoxFunction.run() to call.
+    Object tail_call(Object callee, Object[] arguments, Token paren) {
+        if (callee instanceof LoxFunction function && arguments.length == function.arity()) {
+            return interpreter.tail_call.set(function, null, null, null, null, arguments);
+        }
+        return call(callee, arguments, paren);
+    }
+
+    static Object uninitialized() {
+        return new UninitializedValue();
+    }
+
+    static boolean is_truthy(Object value) {
+        return Interpreter.is_truthy(value);
+    }
+
+    void print(Object value) {
+        interpreter.out.print(stringify(value));
+    }
+
+    void println(Object value) {
+        interpreter.out.println(stringify(value));
+    }
+
+    static Object get(Object object, Token name) {
+        if (object instanceof LoxInstance instance) {
+            Object value = instance.get(name);
+            if (value instanceof UninitializedValue) {
+                throw new LoxRuntimeError(name, "Can't access uninitialized value.");
+            }
+            return value;
+        }
+        throw new LoxRuntimeError(name, "Only instances have properties.");
+    }
+
+    static Object set(Object value, Object object, Token name) {
+        if (object instanceof LoxInstance instance) {
+            instance.set(name, value);
+            return value;
+        }
+        throw new LoxRuntimeError(name, "Expect instance for the setter.");
+    }
+
+    static Object negate(Object right, Token operator) {
+        check_number_operand(operator, right);
+        return -(double)right;
+    }
+
+    static Object plus(Object right, Token operator) {
+        check_number_operand(operator, right);
+        return (double)right;
+    }
+
+    static Object not(Object right) {
+        return !Interpreter.is_truthy(right);
+    }
+
+    static Object bitwise_not(Object right, Token operator) {
+        check_number_operand(operator, right);
+        return (double)~((long)(double)right);
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)left * (double)right;
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        if ((double)right == 0) throw new LoxRuntimeError(operator, "Can't divide by zero.");
+        return (double)left / (double)right;
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)left - (double)right;
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Number && right instanceof Number)
+            return (double)left + (double)right;
+        if (left instanceof CharSequence a && right instanceof CharSequence b)
+            return LoxString.concat(a, b);
+        if (left instanceof CharSequence a && right instanceof Number)
+            return LoxString.concat(a, (double)right);
+        if (left instanceof Number && right instanceof CharSequence b)
+            return LoxString.concat(stringify(left), b);
+        throw new LoxRuntimeError(operator, "Operands must be both numbers or either one of them a string.");
+    }
+
+    static Object greater(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)left > (double)right;
+    }
+
+    static Object greater_equal(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)left >= (double)right;
+    }
+
+    static Object less(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)left < (double)right;
+    }
+
+    static Object less_equal(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)left <= (double)right;
+    }
+
+    static Object equal(Object left, Object right) {
+        return Interpreter.is_equal(left, right);
+    }
+
+    static Object not_equal(Object left, Object right) {
+        return !Interpreter.is_equal(left, right);
+    }
+
+    static Object bitwise_and(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)((long)(double)left & (long)(double)right);
+    }
+
+    static Object bitwise_or(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)((long)(double)left | (long)(double)right);
+    }
+
+    static Object bitwise_xor(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)((long)(double)left ^ (long)(double)right);
+    }
+
+    static Object left_shift(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)((long)(double)left << (long)(double)right);
+    }
+
+    static Object right_shift(Object left, Object right, Token operator) {
+        check_number_operands(left, operator, right);
+        return (double)((long)(double)left >> (long)(double)right);
+    }
+
+}
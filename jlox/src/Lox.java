@@ -1,36 +1,141 @@
 package src;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Lox {
 
+    enum Engine {
+        TREE,
+        CLOSURE,
+        JVM,
+        VM,
+    }
+
     static private final Interpreter interpreter = new Interpreter();
+    static private final ClosureCompiler closure_compiler = new ClosureCompiler(interpreter);
+    static private final JvmCompiler jvm_compiler = new JvmCompiler(interpreter);
+    static private final VM vm = new VM(interpreter);
+    static Engine engine = Engine.TREE;
     static boolean REPL;
     static boolean had_error = false;
     static boolean had_runtime_error = false;
+    // Whether a script's top-level declarations are parsed in parallel.
+    static boolean parallel_parse = false;
+
+    // Java stack reserved per Lox call the program may nest, with room for the
+    // interpreter's own frames before the JIT has compiled them.
+    private static final long STACK_PER_CALL = 4096;
+    // The most --max-depth can ask for, so its thread's stack stays within what
+    // the system will give one thread.
+    private static final int MAX_DEPTH = (int)((1L << 31) / STACK_PER_CALL);
+
+    // Program output is written in blocks of this size rather than a line at a
+    // time, unless --unbuffered is given.
+    private static final int OUTPUT_BUFFER = 1 << 16;
+
+    public static void main(String[] args) throws InterruptedException {
+        List<String> scripts = new ArrayList<>();
+        boolean buffered = true;
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                switch (arg.substring("--engine=".length())) {
+                    case "tree": engine = Engine.TREE; break;
+                    case "closure": engine = Engine.CLOSURE; break;
+                    case "jvm": engine = Engine.JVM; break;
+                    case "vm": engine = Engine.VM; break;
+                    default: usage();
+                }
+            } else if (arg.startsWith("--max-depth=")) {
+                try {
+                    interpreter.max_depth = Integer.parseInt(arg.substring("--max-depth=".length()));
+                } catch (NumberFormatException error) {
+                    usage();
+                }
+                if (interpreter.max_depth < 1 || interpreter.max_depth > MAX_DEPTH) usage();
+            } else if (arg.equals("--unbuffered")) {
+                buffered = false;
+            } else if (arg.equals("--parallel-parse")) {
+                parallel_parse = true;
+            } else if (arg.startsWith("--")) {
+                usage();
+            } else {
+                scripts.add(arg);
+            }
+        }
 
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            Lox.REPL = false;
-            run_file(args[0]);
-        } else {
-            Lox.REPL = true;
-            run_prompt();
+        if (engine == Engine.JVM) interpreter.jit = jvm_compiler;
+
+        if (buffered) {
+            FileOutputStream stdout = new FileOutputStream(FileDescriptor.out);
+            interpreter.out = new PrintStream(new BufferedOutputStream(stdout, OUTPUT_BUFFER), false, System.out.charset());
         }
+
+        if (scripts.size() > 1) usage();
+
+        // Lox calls nest on the Java stack, so the program runs on a thread with
+        // a stack big enough for max_depth of them. Only the part the program
+        // actually goes through gets used.
+        Runnable program = () -> {
+            try {
+                if (scripts.size() == 1) {
+                    Lox.REPL = false;
+                    run_file(scripts.get(0));
+                } else {
+                    Lox.REPL = true;
+                    run_prompt();
+                }
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        };
+        Thread thread = new Thread(null, program, "lox", interpreter.max_depth * STACK_PER_CALL);
+        thread.setUncaughtExceptionHandler((t, error) -> {
+            interpreter.out.flush();
+            error.printStackTrace();
+            System.exit(1);
+        });
+        thread.start();
+        thread.join();
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|closure|jvm|vm] [--max-depth=calls] [--unbuffered] [--parallel-parse] [script]");
+        System.out.println("--max-depth is 1 to " + MAX_DEPTH + " calls, " + Interpreter.DEFAULT_MAX_DEPTH + " by default.");
+        System.exit(64);
     }
 
     private static void run_file(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, StandardCharsets.UTF_8));
+        // The script is mapped rather than read, and decoded as it's scanned, so
+        // a large one isn't held in memory as bytes and again as a String.
+        // A pipe or device has no size to map by, so it's read to the end instead.
+        Path file = Paths.get(path);
+        CharSequence source;
+        if (Files.isRegularFile(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                source = Utf8Source.of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        } else {
+            source = Utf8Source.of(ByteBuffer.wrap(Files.readAllBytes(file)));
+        }
+        run(source);
+        interpreter.out.flush();
 
         if (had_error) System.exit(65);
         if (had_runtime_error) System.exit(70);
@@ -43,6 +148,7 @@ public class Lox {
         while (true) {
             final String color = "\033[96m";
             final String reset = "\033[0m";
+            interpreter.out.flush();
             System.out.print(color + "lox>" + reset + " ");
 
             String line = reader.readLine();
@@ -52,22 +158,24 @@ public class Lox {
         }
     }
 
-    private static void run(String source) throws IOException {
+    private static void run(CharSequence source) throws IOException {
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.get_tokens();
+        TokenBuffer tokens = scanner.get_tokens();
 
         if (had_error) return;
 
         if (Lox.REPL) {
             System.out.print("Tokens: { ");
-            for (Token token : tokens) {
-                System.out.print(token.toString() + " ");
+            for (int i = 0; i < tokens.size(); i++) {
+                System.out.print(tokens.token(i).toString() + " ");
             }
             System.out.println("} ");
         }
 
         Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse_statements();
+        List<Stmt> statements = parallel_parse && !Lox.REPL
+            ? parser.parse_statements_parallel(ForkJoinPool.commonPool())
+            : parser.parse_statements();
 
         if (had_error) return;
 
@@ -82,12 +190,17 @@ public class Lox {
             }
         }
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve_statements(statements);
 
         if (had_error) return;
 
-        interpreter.interpret(statements);
+        switch (engine) {
+            case TREE: interpreter.interpret(statements); break;
+            case CLOSURE: closure_compiler.interpret(statements); break;
+            case JVM: jvm_compiler.interpret(statements); break;
+            case VM: vm.interpret(statements); break;
+        }
     }
     
     static void error(int line, String message) {
@@ -95,10 +208,35 @@ public class Lox {
     }
 
     static void runtime_error(LoxRuntimeError error) {
+        // What the program printed before failing comes out before the error.
+        interpreter.out.flush();
         System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        if (error.trace != null) print_trace(error.trace);
         had_runtime_error = true;
     }
 
+    // Innermost call first, a function calling itself over and over on one
+    // line, and only the ends of a long trace.
+    private static void print_trace(List<String> calls) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < calls.size(); ) {
+            int repeats = 1;
+            while (i + repeats < calls.size() && calls.get(i + repeats).equals(calls.get(i))) repeats++;
+            lines.add(repeats == 1 ? "in " + calls.get(i) : "in " + calls.get(i) + " (" + repeats + " calls)");
+            i += repeats;
+        }
+        lines.add("in script");
+
+        final int shown = 10;
+        for (int i = 0; i < lines.size(); i++) {
+            if (i == shown && lines.size() > 2 * shown + 1) {
+                System.err.println("    ... " + (lines.size() - 2 * shown) + " more");
+                i = lines.size() - shown;
+            }
+            System.err.println("    " + lines.get(i));
+        }
+    }
+
     static void report(int line, String where, String message) {
         System.err.printf("[line %d] Error%s: %s\n", line, where, message);
         had_error = true;
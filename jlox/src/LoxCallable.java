@@ -1,9 +1,32 @@
 package src;
 
+import java.util.Arrays;
 import java.util.List;
 
 interface LoxCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
     String toString();
+
+    // Calls with the arguments passed as they are, so a call site doesn't
+    // need a list. The defaults make one for callables that don't care.
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, List.of());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Arrays.asList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+
+    default Object call(Interpreter interpreter, Object[] arguments) {
+        return call(interpreter, Arrays.asList(arguments));
+    }
 }
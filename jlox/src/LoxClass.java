@@ -1,24 +1,75 @@
 package src;
 
-import java.util.Map;
+import java.util.Arrays;
 import java.util.List;
 
 class LoxClass implements LoxCallable {
     final String name;
-    private final Map<String, LoxFunction> methods;
-    public final Map<String, Object> fields;
 
-    LoxClass(String name, Map<String, LoxFunction> methods, Map<String, Object> fields) {
-        this.name = name;
-        this.methods = methods;
-        this.fields = fields;
-    }
+    // Methods get an index too, for the bound methods an instance keeps. Both
+    // layouts are keyed by the name's Symbol id.
+    private final IntMap method_layout = new IntMap();
+    private final LoxFunction[] method_table;
+
+    // The layout every instance shares: a field's index in the instance's array,
+    // and the values a new instance starts out with.
+    private final IntMap layout = new IntMap();
+    private final Object[] defaults;
 
-    LoxFunction find_method(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
+    // The methods and the fields' starting values come in the order the class
+    // declares them. A name declared twice keeps its last declaration.
+    LoxClass(Stmt.Class declaration, LoxFunction[] methods, Object[] fields) {
+        this.name = declaration.name.lexeme;
+        LoxFunction[] method_table = new LoxFunction[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            int symbol = declaration.methods.get(i).name.symbol;
+            int index = method_layout.get(symbol);
+            if (index < 0) {
+                index = method_layout.size();
+                method_layout.put(symbol, index);
+            }
+            method_table[index] = methods[i];
         }
-        return null;
+        this.method_table = Arrays.copyOf(method_table, method_layout.size());
+
+        Object[] defaults = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            int symbol = declaration.attributes.get(i).name.symbol;
+            int index = layout.get(symbol);
+            if (index < 0) {
+                index = layout.size();
+                layout.put(symbol, index);
+            }
+            defaults[index] = fields[i];
+        }
+        this.defaults = Arrays.copyOf(defaults, layout.size());
+    }
+
+    LoxFunction find_method(int symbol) {
+        int index = method_layout.get(symbol);
+        return index < 0 ? null : method_table[index];
+    }
+
+    // -1 when the class has no such method.
+    int method_index(int symbol) {
+        return method_layout.get(symbol);
+    }
+
+    LoxFunction method(int index) {
+        return method_table[index];
+    }
+
+    int method_count() {
+        return method_table.length;
+    }
+
+    // -1 when the class has no such field.
+    int field_index(int symbol) {
+        return layout.get(symbol);
+    }
+
+    Object[] new_fields() {
+        return defaults.clone();
     }
 
     @Override
@@ -35,4 +86,9 @@ class LoxClass implements LoxCallable {
     public Object call(Interpreter interpreter, List<Object> arguments) {
         return new LoxInstance(this);
     }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return new LoxInstance(this);
+    }
 }
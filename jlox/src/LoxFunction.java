@@ -1,20 +1,34 @@
 package src;
 
+import java.util.Arrays;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
     private final Environment closure;
+    private final CompiledFunction compiled;
+
+    // When nothing in the body can capture the frame, the frames are kept and
+    // reused, one per level of recursion currently running. Code from the
+    // JvmCompiler only reads the arguments out of its frame, so it gets a new
+    // one each time, which costs it less than the bookkeeping.
+    private final boolean reuse_frames;
+    private Environment[] frames = new Environment[1];
+    private int depth = 0;
 
     LoxFunction(Stmt.Function declaration, Environment closure) {
+        this(declaration, closure, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, CompiledFunction compiled) {
         this.declaration = declaration;
         this.closure = closure;
+        this.compiled = compiled;
+        this.reuse_frames = !declaration.frame_escapes && !(compiled instanceof JvmCompiler.Function);
     }
 
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment);
+        return new LoxFunction(declaration, instance.this_frame(closure), compiled);
     }
 
     @Override
@@ -24,17 +38,164 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            String key = declaration.params.get(i).lexeme;
-            environment.define(key, arguments.get(i));
+        Environment frame = enter(closure);
+        for (Object argument : arguments) {
+            frame.define(argument);
+        }
+        return run(interpreter, frame);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return run(interpreter, enter(closure));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        Environment frame = enter(closure);
+        frame.define(a);
+        return run(interpreter, frame);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        Environment frame = enter(closure);
+        frame.define(a);
+        frame.define(b);
+        return run(interpreter, frame);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        Environment frame = enter(closure);
+        frame.define(a);
+        frame.define(b);
+        frame.define(c);
+        return run(interpreter, frame);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        if (!reuse_frames && compiled != null) return call_compiled(interpreter, arguments);
+
+        Environment frame = enter(closure);
+        for (Object argument : arguments) {
+            frame.define(argument);
+        }
+        return run(interpreter, frame);
+    }
+
+    // The calls from the JvmCompiler's code to more of it, kept short so the
+    // JIT can inline deep into the recursion.
+    private Object call_compiled(Interpreter interpreter, Object[] arguments) {
+        Environment frame = new Environment(closure, arguments.length);
+        for (Object argument : arguments) {
+            frame.define(argument);
         }
+        // The call that would go past max_depth isn't running, so it isn't in
+        // the trace.
+        if (interpreter.call_depth == interpreter.max_depth) {
+            throw LoxRuntimeError.stack_overflow(declaration.name);
+        }
+        interpreter.call_depth += 1;
+        Object result;
         try {
-            interpreter.execute_block(declaration.body, environment);
-        } catch (LoxReturn return_value) {
-            return return_value.value;
+            result = compiled.call(frame);
+        } catch (StackOverflowError error) {
+            throw LoxRuntimeError.stack_overflow(declaration.name).called_from(this);
+        } catch (LoxRuntimeError error) {
+            throw error.called_from(this);
+        } finally {
+            interpreter.call_depth -= 1;
+        }
+        if (result instanceof TailCall) return tail_calls(interpreter, result);
+        return result;
+    }
+
+    // Calls a method on 'receiver' without binding it first.
+    Object call_method(Interpreter interpreter, LoxInstance receiver, Object a, Object b, Object c, Object[] rest) {
+        return run(interpreter, enter(receiver, a, b, c, rest));
+    }
+
+    // A frame with the arguments already in it. They're 'a', 'b' and 'c', or
+    // all of them in 'rest' when there are more than three. A null receiver
+    // means a plain call.
+    private Environment enter(LoxInstance receiver, Object a, Object b, Object c, Object[] rest) {
+        Environment frame = enter(receiver == null ? closure : receiver.this_frame(closure));
+        if (rest != null) {
+            for (Object argument : rest) {
+                frame.define(argument);
+            }
+        } else {
+            int count = arity();
+            if (count > 0) frame.define(a);
+            if (count > 1) frame.define(b);
+            if (count > 2) frame.define(c);
         }
-        return null;
+        return frame;
+    }
+
+    private Environment enter(Environment enclosing) {
+        if (!reuse_frames) {
+            return new Environment(enclosing, declaration.params.size());
+        }
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        Environment frame = frames[depth];
+        if (frame == null) {
+            frame = frames[depth] = new Environment(enclosing, declaration.params.size());
+        } else {
+            frame.reset(enclosing);
+        }
+        depth += 1;
+        return frame;
+    }
+
+    private Object run(Interpreter interpreter, Environment frame) {
+        Object result = execute(interpreter, frame);
+        if (result instanceof TailCall) return tail_calls(interpreter, result);
+        return result;
+    }
+
+    // Tail calls the body returns are made here, one after the other, so they
+    // don't nest on the Java stack.
+    private static Object tail_calls(Interpreter interpreter, Object result) {
+        while (result instanceof TailCall call) {
+            LoxFunction function = call.function;
+            Environment next = function.enter(call.receiver, call.a, call.b, call.c, call.rest);
+            call.clear();
+            result = function.execute(interpreter, next);
+        }
+        return result;
+    }
+
+    private Object execute(Interpreter interpreter, Environment frame) {
+        if (interpreter.call_depth == interpreter.max_depth) {
+            if (reuse_frames) leave(frame);
+            throw LoxRuntimeError.stack_overflow(declaration.name);
+        }
+        interpreter.call_depth += 1;
+        try {
+            if (compiled != null) {
+                return compiled.call(frame);
+            }
+            return interpreter.execute_function(declaration.body, frame);
+        } catch (StackOverflowError error) {
+            // The Java stack ran out before max_depth did.
+            throw LoxRuntimeError.stack_overflow(declaration.name).called_from(this);
+        } catch (LoxRuntimeError error) {
+            throw error.called_from(this);
+        } finally {
+            interpreter.call_depth -= 1;
+            if (reuse_frames) leave(frame);
+        }
+    }
+
+    private void leave(Environment frame) {
+        depth -= 1;
+        // Don't keep the arguments and locals alive until the next call.
+        frame.reset(null);
     }
 
     @Override
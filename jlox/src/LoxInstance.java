@@ -1,39 +1,73 @@
 package src;
 
-import java.util.Map;
-import java.util.HashMap;
-
 class LoxInstance {
-    private final LoxClass lox_class;
-    private final Map<String, Object> fields;
+    final LoxClass lox_class;
+    private final Object[] fields;
+
+    // Made on first use: the frame holding 'this' for the methods, and the
+    // methods already bound to this instance.
+    private Environment this_frame = null;
+    private LoxFunction[] bound_methods = null;
 
     LoxInstance(LoxClass lox_class) {
         this.lox_class = lox_class;
-        this.fields = new HashMap<>(lox_class.fields);
+        this.fields = lox_class.new_fields();
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        int index = lox_class.field_index(name.symbol);
+        if (index >= 0) {
+            return fields[index];
         }
 
-        LoxFunction method = lox_class.find_method(name.lexeme);
-        if (method != null) return method.bind(this);
+        int method = lox_class.method_index(name.symbol);
+        if (method >= 0) return bound_method(method);
 
         String message = "The class '" + lox_class.name + "' doesn't contain field '" + name.lexeme + "'.";
         throw new LoxRuntimeError(name, message);
     }
 
+    // A method taken as a value, bound once per instance.
+    LoxFunction bound_method(int index) {
+        if (bound_methods == null) bound_methods = new LoxFunction[lox_class.method_count()];
+        LoxFunction bound = bound_methods[index];
+        if (bound == null) {
+            bound = lox_class.method(index).bind(this);
+            bound_methods[index] = bound;
+        }
+        return bound;
+    }
+
+    // All the methods of a class share its closure, so one frame serves them.
+    Environment this_frame(Environment closure) {
+        if (this_frame != null && this_frame.enclosing == closure) return this_frame;
+
+        Environment frame = new Environment(closure, 1);
+        frame.define(this);
+        if (this_frame == null) this_frame = frame;
+        return frame;
+    }
+
+    // For callers that already looked up the field's index in the class layout.
+    Object get_field(int index) {
+        return fields[index];
+    }
+
+    void set_field(int index, Object value) {
+        fields[index] = value;
+    }
+
     void set(Token name, Object value) {
-        if (!fields.containsKey(name.lexeme)) {
+        int index = lox_class.field_index(name.symbol);
+        if (index < 0) {
             String message = "The class '" + lox_class.name + "' doesn't contain field '" + name.lexeme + "'.";
             throw new LoxRuntimeError(name, message);
         }
-        if (lox_class.find_method(name.lexeme) != null) {
+        if (lox_class.find_method(name.symbol) != null) {
             String message = "The name '" + name.lexeme + "' is already used as a method.";
             throw new LoxRuntimeError(name, message);
         }
-        fields.put(name.lexeme, value);
+        fields[index] = value;
     }
 
     @Override
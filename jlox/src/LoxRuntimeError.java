@@ -1,10 +1,30 @@
 package src;
 
+import java.util.ArrayList;
+import java.util.List;
+
 class LoxRuntimeError extends RuntimeException {
     final Token token;
+    // The calls that were running, innermost first, for the errors that print
+    // them. Filled in as the error leaves each call.
+    final List<String> trace;
 
     LoxRuntimeError(Token token, String message) {
+        this(token, message, null);
+    }
+
+    private LoxRuntimeError(Token token, String message, List<String> trace) {
         super(message);
         this.token = token;
+        this.trace = trace;
+    }
+
+    static LoxRuntimeError stack_overflow(Token token) {
+        return new LoxRuntimeError(token, "Stack overflow.", new ArrayList<>());
+    }
+
+    LoxRuntimeError called_from(LoxCallable function) {
+        if (trace != null) trace.add(function.toString());
+        return this;
     }
 }
@@ -0,0 +1,77 @@
+package src;
+
+// The result of a long string concatenation. Lox strings are either a String or
+// one of these, so the engines check for CharSequence.
+//
+// The characters live in a StringBuilder shared with the strings it was built
+// from: a LoxString is the first 'length' characters of it. Appending to the
+// string that ends the builder appends in place, so 's = s + x' in a loop is
+// amortized O(1) instead of copying 's' every time. Appending to any other one
+// copies it first. The String is only made when something needs it, printing,
+// comparing or hashing, and then kept.
+final class LoxString implements CharSequence {
+    // Below this, concatenating makes a plain String, which is cheaper to make
+    // and to use than a builder.
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat = null;
+
+    private LoxString(StringBuilder builder) {
+        this.builder = builder;
+        this.length = builder.length();
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left instanceof LoxString string && string.length == string.builder.length()) {
+            return new LoxString(string.builder.append(right));
+        }
+        int length = left.length() + right.length();
+        if (length < MIN_LENGTH) {
+            return left.toString().concat(right.toString());
+        }
+        return new LoxString(new StringBuilder(2 * length).append(left).append(right));
+    }
+
+    // Like concat(left, stringify(right)), but the number is written straight
+    // into the builder when appending in place.
+    static CharSequence concat(CharSequence left, double right) {
+        if (left instanceof LoxString string && string.length == string.builder.length()) {
+            return new LoxString(NumberFormatter.append(string.builder, right));
+        }
+        return concat(left, NumberFormatter.format(right));
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) throw new IndexOutOfBoundsException(index);
+        return builder.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flat = builder.substring(0, length);
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LoxString string && toString().equals(string.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
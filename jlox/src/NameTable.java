@@ -0,0 +1,55 @@
+package src;
+
+// The identifiers of one compilation and their symbols. A name is hashed where
+// it lies in the source, so one seen before costs no new String and no trip to
+// the process-wide Symbol table.
+final class NameTable {
+    private Symbol[] symbols = new Symbol[256];
+    private int count = 0;
+
+    // Hashes like String.hashCode, so a stored name's cached hash can be
+    // compared before its characters.
+    Symbol intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        int mask = symbols.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            Symbol symbol = symbols[slot];
+            if (symbol == null) {
+                symbol = Symbol.intern(source.subSequence(start, end).toString());
+                symbols[slot] = symbol;
+                count += 1;
+                if (2 * count > symbols.length) grow();
+                return symbol;
+            }
+            if (symbol.name.hashCode() == hash && matches(symbol.name, source, start, end)) return symbol;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        Symbol[] old = symbols;
+        symbols = new Symbol[2 * old.length];
+        int mask = symbols.length - 1;
+        for (Symbol symbol : old) {
+            if (symbol == null) continue;
+            int slot = spread(symbol.name.hashCode()) & mask;
+            while (symbols[slot] != null) slot = (slot + 1) & mask;
+            symbols[slot] = symbol;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package src;
+
+// The text Lox shows for a number: what Double.toString gives, without the
+// ".0" it puts on whole numbers. Whole numbers below 1e7, where Double.toString
+// switches to E notation, are what programs print and concatenate the most, so
+// they go through the long formatting instead: one String and no trimming, or
+// straight into a builder's characters.
+final class NumberFormatter {
+    private static final double WHOLE_LIMIT = 1e7;
+
+    // -0.0 prints as "-0", which the long formatting would lose.
+    private static boolean is_small_whole(double value) {
+        return value == (long)value && Math.abs(value) < WHOLE_LIMIT && Double.doubleToRawLongBits(value) != Long.MIN_VALUE;
+    }
+
+    // Of the other numbers only -0.0 gets a ".0" from Double.toString. The rest
+    // have a fraction or an exponent.
+    static String format(double value) {
+        if (is_small_whole(value)) return Long.toString((long)value);
+        if (value == 0) return "-0";
+        return Double.toString(value);
+    }
+
+    static StringBuilder append(StringBuilder builder, double value) {
+        if (is_small_whole(value)) return builder.append((long)value);
+        return builder.append(format(value));
+    }
+
+    private NumberFormatter() {
+    }
+}
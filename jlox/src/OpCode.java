@@ -0,0 +1,65 @@
+package src;
+
+// Instructions of the bytecode VM. Operands follow the opcode in the chunk;
+// the comment lists them when there are any.
+final class OpCode {
+    static final byte OP_NIL = 0;
+    static final byte OP_TRUE = 1;
+    static final byte OP_FALSE = 2;
+    static final byte OP_CONSTANT = 3;              // u8 constant
+    static final byte OP_CONSTANT_LONG = 4;         // u24 constant
+    static final byte OP_POP = 5;
+
+    static final byte OP_GET_LOCAL = 6;             // u8 slot
+    static final byte OP_SET_LOCAL = 7;             // u8 slot
+    static final byte OP_GET_UPVALUE = 8;           // u8 upvalue
+    static final byte OP_SET_UPVALUE = 9;           // u8 upvalue
+    static final byte OP_GET_GLOBAL = 10;           // u16 global
+    static final byte OP_SET_GLOBAL = 11;           // u16 global
+    static final byte OP_DEFINE_GLOBAL = 12;        // u16 global
+    static final byte OP_CHECK_FUNCTION_NAME = 13;  // u16 global
+
+    static final byte OP_NOT = 14;
+    static final byte OP_NEGATE = 15;
+    static final byte OP_POSITIVE = 16;
+    static final byte OP_BITWISE_NOT = 17;
+
+    static final byte OP_EQUAL = 18;
+    static final byte OP_NOT_EQUAL = 19;
+    static final byte OP_GREATER = 20;
+    static final byte OP_GREATER_EQUAL = 21;
+    static final byte OP_LESS = 22;
+    static final byte OP_LESS_EQUAL = 23;
+
+    static final byte OP_ADD = 24;
+    static final byte OP_SUBTRACT = 25;
+    static final byte OP_MULTIPLY = 26;
+    static final byte OP_DIVIDE = 27;
+    static final byte OP_BITWISE_AND = 28;
+    static final byte OP_BITWISE_OR = 29;
+    static final byte OP_BITWISE_XOR = 30;
+    static final byte OP_LEFT_SHIFT = 31;
+    static final byte OP_RIGHT_SHIFT = 32;
+
+    static final byte OP_PRINT = 33;
+    static final byte OP_PRINTLN = 34;
+    static final byte OP_EXPRESSION_RESULT = 35;    // u16 constant
+
+    static final byte OP_JUMP = 36;                 // u16 offset
+    static final byte OP_JUMP_IF_FALSE = 37;        // u16 offset
+    static final byte OP_LOOP = 38;                 // u16 offset
+
+    static final byte OP_CALL = 39;                 // u8 argument count
+    static final byte OP_CLOSURE = 40;              // u16 constant, then (u8 is_local, u8 index) per upvalue
+    static final byte OP_CLOSE_UPVALUE = 41;
+    static final byte OP_RETURN = 42;
+
+    // The constant is the Stmt.Class declared, or the property's name Token.
+    static final byte OP_CLASS = 43;                // u16 constant
+    static final byte OP_GET_PROPERTY = 44;         // u16 constant
+    static final byte OP_SET_PROPERTY = 45;         // u16 constant
+    static final byte OP_INVOKE = 46;               // u16 constant, u8 argument count
+
+    private OpCode() {
+    }
+}
@@ -3,17 +3,35 @@ package src;
 import java.util.List;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import static src.TokenType.*;
 
 class Parser {
-    private final List<Token> tokens;
+    // A file is split for parse_statements_parallel at top-level declarations
+    // at least this many tokens apart.
+    private static final int CHUNK_TOKENS = 1 << 14;
+    // What a chunk's task gives when it ran out of stack.
+    private static final List<Stmt> TOO_DEEP = new ArrayList<>();
+
+    private final TokenBuffer tokens;
     private int current = 0;
     private int loop_level = 0;
+    // A chunk's parser notes its errors here instead of reporting them.
+    private final boolean quiet;
+    private boolean failed = false;
 
     private static class ParseError extends RuntimeException {};
 
-    Parser(List<Token> tokens) {
+    Parser(TokenBuffer tokens) {
         this.tokens = tokens;
+        this.quiet = false;
+    }
+
+    private Parser(TokenBuffer tokens, int start) {
+        this.tokens = tokens;
+        this.current = start;
+        this.quiet = true;
     }
 
     List<Stmt> parse_statements() {
@@ -26,6 +44,95 @@ class Parser {
         return statements;
     }
 
+    // Gives what parse_statements does, parsing the top-level declarations of a
+    // large file in chunks on pool. The chunks are parsed quietly. If any of
+    // them has an error, the file is parsed again in order, so the errors are
+    // reported through Lox.error just as parse_statements reports them.
+    List<Stmt> parse_statements_parallel(ForkJoinPool pool) {
+        int[] starts = split(tokens);
+        if (starts.length < 2) return parse_statements();
+
+        List<ForkJoinTask<List<Stmt>>> chunks = new ArrayList<>();
+        for (int i = 0; i < starts.length; i++) {
+            Parser parser = new Parser(tokens.share(), starts[i]);
+            int end = chunk_end(starts, i);
+            chunks.add(pool.submit(() -> {
+                try {
+                    return parser.parse_chunk(end);
+                } catch (StackOverflowError error) {
+                    return TOO_DEEP;
+                }
+            }));
+        }
+
+        List<Stmt> statements = new ArrayList<>();
+        boolean had_error = false;
+        for (int i = 0; i < chunks.size(); i++) {
+            List<Stmt> chunk_statements = chunks.get(i).join();
+            if (chunk_statements == TOO_DEEP) {
+                // A pool thread has a default stack, smaller than the one this
+                // thread gets for deep programs, so a chunk that nests too deep
+                // for it is parsed here.
+                chunk_statements = new Parser(tokens, starts[i]).parse_chunk(chunk_end(starts, i));
+            }
+            if (chunk_statements == null) had_error = true;
+            else if (!had_error) statements.addAll(chunk_statements);
+        }
+
+        if (had_error) return parse_statements();
+        return statements;
+    }
+
+    private int chunk_end(int[] starts, int chunk) {
+        return chunk + 1 < starts.length ? starts[chunk + 1] : tokens.size() - 1;
+    }
+
+    // The declarations up to end, or null if they had an error or didn't stop
+    // right at end.
+    private List<Stmt> parse_chunk(int end) {
+        List<Stmt> statements = new ArrayList<>();
+
+        while (current < end && !failed) {
+            statements.add(declaration());
+        }
+
+        return failed || current != end ? null : statements;
+    }
+
+    // Where the chunks of a file start: the first token, then top-level 'fun'
+    // and 'class' declarations right after a ';' or '}', where nothing parsed
+    // before can go on. The brackets have to balance for that to be known, so
+    // a file where they don't is one chunk.
+    private static int[] split(TokenBuffer tokens) {
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+
+        int depth = 0;
+        int last = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            switch (tokens.type(i)) {
+                case LEFT_PAREN: case LEFT_BRACE: depth += 1; break;
+                case RIGHT_PAREN: case RIGHT_BRACE:
+                    depth -= 1;
+                    if (depth < 0) return new int[] { 0 };
+                    break;
+                case FUN:
+                    if (tokens.type(i + 1) != IDENTIFIER) break;
+                    // Falls through.
+                case CLASS:
+                    if (depth > 0 || i - last < CHUNK_TOKENS) break;
+                    TokenType before = tokens.type(i - 1);
+                    if (before != SEMICOLON && before != RIGHT_BRACE) break;
+                    starts.add(i);
+                    last = i;
+                    break;
+            }
+        }
+        if (depth != 0) return new int[] { 0 };
+
+        return starts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     Expr parse_expression() {
         try {
             return expression();
@@ -53,7 +160,7 @@ class Parser {
     }
 
     private Stmt.Function fun_declaration() {
-        Token name = consume(IDENTIFIER, "Expected function name.");
+        Token name = consume_token(IDENTIFIER, "Expected function name.");
         List<Token> params = new ArrayList<>();
 
         consume(LEFT_PAREN, "Expected '(' after function name");
@@ -62,7 +169,7 @@ class Parser {
                 if (params.size() >= 255) {
                     this.error(peek(), "Can't have more than 255 parameters.");
                 }
-                Token param_name = consume(IDENTIFIER, "Expected parameter name.");
+                Token param_name = consume_token(IDENTIFIER, "Expected parameter name.");
                 params.add(param_name);
             } while (match(COMMA));
         }
@@ -75,7 +182,7 @@ class Parser {
     }
 
     private Stmt class_declaration() {
-        Token name = consume(IDENTIFIER, "Expect class name.");
+        Token name = consume_token(IDENTIFIER, "Expect class name.");
         List<Stmt.Var> attributes = new ArrayList<>();
         List<Stmt.Function> methods = new ArrayList<>();
 
@@ -95,7 +202,7 @@ class Parser {
     }
 
     private Stmt.Var var_declaration() {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        Token name = consume_token(IDENTIFIER, "Expect variable name.");
         Expr initializer = null;
 
         if (match(EQUAL)) {
@@ -123,7 +230,7 @@ class Parser {
         if (this.loop_level == 0) {
             String message = "Can't use continue statement outside a loop.";
             if (Lox.REPL) this.error(previous(), message);
-            else Lox.error(previous(), message);
+            else report(previous(), message);
         }
         consume(SEMICOLON, "Expected ';' after continue statement.");
         return new Stmt.Continue();
@@ -133,18 +240,18 @@ class Parser {
         if (this.loop_level == 0) {
             String message = "Can't use break statement outside a loop.";
             if (Lox.REPL) this.error(previous(), message);
-            else Lox.error(previous(), message);
+            else report(previous(), message);
         }
         consume(SEMICOLON, "Expected ';' after break statement.");
         return new Stmt.Break();
     }
 
     private void expect_do_or_block(String type) {
-        switch (peek().type) {
+        switch (peek_type()) {
             case LEFT_BRACE: break;
             case DO: {
                 advance();
-                if (peek().type == LEFT_BRACE) {
+                if (peek_type() == LEFT_BRACE) {
                     throw this.error(peek(), "Expected single statement after 'do' in " + type + ".");
                 }
             } break;
@@ -229,7 +336,7 @@ class Parser {
 
         List<Else_If> else_ifs = new ArrayList<>();
         while (check(ELSE)) {
-            if (peek_next().type == IF) {
+            if (tokens.type(current + 1) == IF) {
                 current += 2;
                 Expr else_if_condition = parse_expression();
                 expect_do_or_block("else-if part of the if statement");
@@ -459,10 +566,10 @@ class Parser {
                         arguments.add(argument_expr);
                     } while (match(COMMA));
                 }
-                Token paren = consume(RIGHT_PAREN, "Expect ')' after function call.");
+                Token paren = consume_token(RIGHT_PAREN, "Expect ')' after function call.");
                 expr = new Expr.Call(expr, paren, arguments);
             } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'");
+                Token name = consume_token(IDENTIFIER, "Expect property name after '.'");
                 expr = new Expr.Get(expr, name);
             } else {
                 break;
@@ -483,7 +590,7 @@ class Parser {
                     if (params.size() >= 255) {
                         this.error(peek(), "Can't have more than 255 parameters.");
                     }
-                    Token param_name = consume(IDENTIFIER, "Expected parameter name.");
+                    Token param_name = consume_token(IDENTIFIER, "Expected parameter name.");
                     params.add(param_name);
                 } while (match(COMMA));
             }
@@ -504,13 +611,13 @@ class Parser {
         if (match(NIL)) return new Expr.Literal(null);
 
         if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.literal(current - 1));
         }
 
         if (match(THIS)) return new Expr.This(previous());
 
         if (match(IDENTIFIER)) {
-            boolean is_function = (peek().type == LEFT_PAREN);
+            boolean is_function = (peek_type() == LEFT_PAREN);
             return new Expr.Variable(previous(), is_function);
         }
 
@@ -532,23 +639,33 @@ class Parser {
         return new Expr.Ternary(condition, if_true, otherwise);
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
-        throw this.error(peek(), message);
+    private void consume(TokenType type, String message) {
+        if (!check(type)) throw this.error(peek(), message);
+        advance();
+    }
+
+    private Token consume_token(TokenType type, String message) {
+        consume(type, message);
+        return previous();
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        report(token, message);
         return new ParseError();
     }
 
+    private void report(Token token, String message) {
+        if (quiet) failed = true;
+        else Lox.error(token, message);
+    }
+
     private void synchronize() {
         advance();
 
         while (!is_at_end()) {
-            if (previous().type == SEMICOLON) return;
+            if (tokens.type(current - 1) == SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (peek_type()) {
                 case CLASS:
                 case CONTINUE:
                 case BREAK:
@@ -579,27 +696,27 @@ class Parser {
 
     private boolean check(TokenType type) {
         if (is_at_end()) return false;
-        return peek().type == type;
+        return peek_type() == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!is_at_end()) current++;
-        return previous();
     }
 
     private boolean is_at_end() {
-        return peek().type == EOF;
+        return peek_type() == EOF;
     }
 
-    private Token peek() {
-        return this.tokens.get(current);
+    private TokenType peek_type() {
+        return this.tokens.type(current);
     }
 
-    private Token peek_next() {
-        return this.tokens.get(current + 1);
+    // Tokens are only made for what the AST keeps and for errors.
+    private Token peek() {
+        return this.tokens.token(current);
     }
 
     private Token previous() {
-        return this.tokens.get(current - 1);
+        return this.tokens.token(current - 1);
     }
 }
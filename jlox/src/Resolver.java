@@ -1,15 +1,24 @@
 package src;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Stack;
 import java.util.Map;
-import java.util.HashMap;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType current_fn = FunctionType.NONE;
     private ClassType current_class = ClassType.NONE;
+    // Whether the function being resolved creates a function, lambda or class,
+    // any of which can hold on to its frame after it returns.
+    private boolean makes_closure = false;
+
+    // Expressions whose type depends on the locals they use, in the order they
+    // were resolved, so an expression always comes after its operands.
+    private final List<Expr> typed = new ArrayList<>();
+    private final Map<Expr, Local> bindings = new IdentityHashMap<>();
+    private final List<Local> candidates = new ArrayList<>();
 
     private enum FunctionType {
         NONE,
@@ -24,20 +33,62 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         CLASS,
     }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // Locals get consecutive slots in the order they are declared in their scope,
+    // which is the same order the interpreter defines them in the scope's frame.
+    private static class Local {
+        final int slot;
+        boolean defined = false;
+
+        // Only locals declared with an initializer can be numeric; 'values' holds
+        // the initializer and every expression assigned to the local.
+        boolean numeric = false;
+        final List<Expr> values = new ArrayList<>();
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    // The locals of one scope, found by their name's Symbol id.
+    private static class Scope {
+        private final IntMap slots = new IntMap();
+        private final List<Local> locals = new ArrayList<>();
+
+        Local get(int symbol) {
+            int slot = slots.get(symbol);
+            return slot < 0 ? null : locals.get(slot);
+        }
+
+        boolean contains(int symbol) {
+            return slots.contains(symbol);
+        }
+
+        Local declare(int symbol) {
+            Local local = new Local(locals.size());
+            slots.put(symbol, local.slot);
+            locals.add(local);
+            return local;
+        }
     }
 
     @Override
     public Void visit_block_stmt(Stmt.Block stmt) {
+        boolean enclosing_makes_closure = makes_closure;
+        makes_closure = false;
+
         begin_scope();
         resolve_statements(stmt.statements);
         end_scope();
+
+        // A closure made in the block holds on to its frame, and so to the
+        // frames of the blocks and function around it.
+        stmt.frame_escapes = makes_closure;
+        makes_closure = enclosing_makes_closure || makes_closure;
         return null;
     }
 
     void begin_scope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new Scope());
     }
 
     void end_scope() {
@@ -48,6 +99,74 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         for (Stmt statement : statements) {
             resolve_stmt(statement);
         }
+        // Back at the top level every local has been seen.
+        if (scopes.isEmpty()) infer_types();
+    }
+
+    // Every candidate local starts out numeric. One that is given a value that
+    // may not be a number is dropped, which can drop the locals assigned from
+    // it in turn, until nothing changes.
+    private void infer_types() {
+        boolean changed = true;
+        while (changed) {
+            for (Expr expr : typed) {
+                expr.numeric = is_numeric(expr);
+            }
+            changed = false;
+            for (Local local : candidates) {
+                if (!local.numeric) continue;
+                for (Expr value : local.values) {
+                    if (!value.numeric) {
+                        local.numeric = false;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        typed.clear();
+        bindings.clear();
+        candidates.clear();
+    }
+
+    private boolean is_numeric(Expr expr) {
+        if (expr instanceof Expr.Literal literal) {
+            return literal.value instanceof Double;
+        }
+        if (expr instanceof Expr.Grouping grouping) {
+            return grouping.expression.numeric;
+        }
+        if (expr instanceof Expr.Variable variable) {
+            Local local = bindings.get(variable);
+            return local != null && local.numeric;
+        }
+        if (expr instanceof Expr.Assign assign) {
+            return assign.value.numeric;
+        }
+        if (expr instanceof Expr.Ternary ternary) {
+            return ternary.if_true.numeric && ternary.otherwise.numeric;
+        }
+        if (expr instanceof Expr.Unary unary) {
+            return unary.operator.type != TokenType.BANG;
+        }
+        if (expr instanceof Expr.Binary binary) {
+            switch (binary.operator.type) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                case BITWISE_AND:
+                case BITWISE_OR:
+                case BITWISE_XOR:
+                case LEFT_SHIFT:
+                case RIGHT_SHIFT:
+                    return true;
+                case PLUS:
+                    return binary.left.numeric && binary.right.numeric;
+                default:
+                    return false;
+            }
+        }
+        return false;
     }
 
     void resolve_stmt(Stmt statement) {
@@ -63,6 +182,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         declare(stmt.name);
         if (stmt.initializer != null) {
             resolve_expr(stmt.initializer);
+            if (!scopes.isEmpty()) {
+                Local local = scopes.peek().get(stmt.name.symbol);
+                local.numeric = true;
+                local.values.add(stmt.initializer);
+                candidates.add(local);
+            }
         }
         define(stmt.name);
         return null;
@@ -70,32 +195,48 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void declare(Token name) {
         if (scopes.isEmpty()) return;
-        var scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
+        Scope scope = scopes.peek();
+        if (scope.contains(name.symbol)) {
             Lox.error(name, "Redeclaration of variable '" + name.lexeme + "'.");
         }
-        scope.put(name.lexeme, false);
+        scope.declare(name.symbol);
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.symbol).defined = true;
     }
 
     @Override
     public Void visit_variable_expr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+        if (!scopes.isEmpty()) {
+            Local local = scopes.peek().get(expr.name.symbol);
+            if (local != null && !local.defined) {
+                Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            }
         }
-        resolve_local(expr, expr.name);
+        resolve_local(expr, expr.name.symbol);
+        typed.add(expr);
         return null;
     }
 
-    private void resolve_local(Expr expr, Token name) {
+    private void resolve_local(Expr expr, int symbol) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
+            Local local = scopes.get(i).get(symbol);
+            if (local != null) {
                 int depth = scopes.size() - 1 - i;
-                interpreter.resolve(expr, depth);
+                if (expr instanceof Expr.Variable variable) {
+                    variable.depth = depth;
+                    variable.slot = local.slot;
+                    bindings.put(variable, local);
+                } else if (expr instanceof Expr.Assign assign) {
+                    assign.depth = depth;
+                    assign.slot = local.slot;
+                    local.values.add(assign.value);
+                } else if (expr instanceof Expr.This this_expr) {
+                    this_expr.depth = depth;
+                    this_expr.slot = local.slot;
+                }
                 return;
             }
         }
@@ -104,22 +245,33 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visit_assign_expr(Expr.Assign expr) {
         resolve_expr(expr.value);
-        resolve_local(expr, expr.name);
+        resolve_local(expr, expr.name.symbol);
+        typed.add(expr);
         return null;
     }
 
     @Override
     public Void visit_function_stmt(Stmt.Function function) {
+        for (int i = scopes.size() - 2; i >= 0; i--) {
+            if (scopes.get(i).contains(function.name.symbol)) {
+                Lox.error(function.name, "Function name '" + function.name.lexeme + "' is already in use.");
+                break;
+            }
+        }
         declare(function.name);
         define(function.name);
 
-        resolve_function(function.params, function.body, FunctionType.FUNCTION);
+        makes_closure = true;
+        function.frame_escapes = resolve_function(function.params, function.body, FunctionType.FUNCTION);
         return null;
     }
 
-    private void resolve_function(List<Token> params, List<Stmt> body, FunctionType type) {
+    // Returns whether the function's frame can outlive the call.
+    private boolean resolve_function(List<Token> params, List<Stmt> body, FunctionType type) {
         FunctionType enclosing_fn = current_fn;
         current_fn = type;
+        boolean enclosing_makes_closure = makes_closure;
+        makes_closure = false;
 
         begin_scope();
         for (Token param : params) {
@@ -129,7 +281,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         resolve_statements(body);
         end_scope();
 
+        boolean frame_escapes = makes_closure;
+        makes_closure = enclosing_makes_closure;
         current_fn = enclosing_fn;
+        return frame_escapes;
     }
 
     @Override
@@ -155,6 +310,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(stmt.keyword, "Can't return outside of function.");
         }
         if (stmt.value != null) resolve_expr(stmt.value);
+        // Nothing is left to do in the function after a returned call.
+        if (current_fn != FunctionType.NONE && stmt.value instanceof Expr.Call) {
+            stmt.tail_call = true;
+        }
         return null;
     }
 
@@ -182,11 +341,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         declare(stmt.name);
         define(stmt.name);
+        makes_closure = true;
 
         begin_scope();
-        scopes.peek().put("this", true);
+        scopes.peek().declare(Symbol.THIS.id).defined = true;
         for (Stmt.Function method : stmt.methods) {
-            resolve_function(method.params, method.body, FunctionType.METHOD);
+            method.frame_escapes = resolve_function(method.params, method.body, FunctionType.METHOD);
         }
         end_scope();
         current_class = enclosing_class;
@@ -204,6 +364,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visit_binary_expr(Expr.Binary expr) {
         resolve_expr(expr.left);
         resolve_expr(expr.right);
+        typed.add(expr);
         return null;
     }
 
@@ -225,17 +386,20 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visit_grouping_expr(Expr.Grouping expr) {
         resolve_expr(expr.expression);
+        typed.add(expr);
         return null;
     }
 
     @Override
     public Void visit_lambda_expr(Expr.Lambda lambda) {
-        resolve_function(lambda.params, lambda.body, FunctionType.LAMBDA);
+        makes_closure = true;
+        lambda.frame_escapes = resolve_function(lambda.params, lambda.body, FunctionType.LAMBDA);
         return null;
     }
 
     @Override
     public Void visit_literal_expr(Expr.Literal expr) {
+        typed.add(expr);
         return null;
     }
 
@@ -259,7 +423,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(expr.keyword, "Can't use 'this' outside of class.");
             return null;
         }
-        resolve_local(expr, expr.keyword);
+        resolve_local(expr, Symbol.THIS.id);
         return null;
     }
 
@@ -268,12 +432,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         resolve_expr(expr.condition);
         resolve_expr(expr.if_true);
         resolve_expr(expr.otherwise);
+        typed.add(expr);
         return null;
     }
 
     @Override
     public Void visit_unary_expr(Expr.Unary expr) {
         resolve_expr(expr.right);
+        typed.add(expr);
         return null;
     }
 }
@@ -0,0 +1,34 @@
+package src;
+
+import java.util.Arrays;
+
+// Line numbers of a chunk's bytes, stored as (count, line) pairs like clox's
+// rle_lines: a run of instructions on the same line costs two ints.
+class RleLines {
+    private int[] array = new int[8];
+    private int count = 0;
+
+    void append(int line) {
+        if (count > 0 && array[count - 1] == line) {
+            array[count - 2]++;
+            return;
+        }
+        if (array.length < count + 2) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[count] = 1;
+        array[count + 1] = line;
+        count += 2;
+    }
+
+    int get(int index) {
+        int seen = 0;
+        for (int i = 0; i < count; i += 2) {
+            if (seen + array[i] > index) {
+                return array[i + 1];
+            }
+            seen += array[i];
+        }
+        return -1;
+    }
+}
@@ -1,55 +1,41 @@
 package src;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import static src.TokenType.*;
 
 public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    // A String, or a Utf8Source for a script read from a file.
+    private final CharSequence source;
+    private final TokenBuffer tokens;
+    private final NameTable names = new NameTable();
 
     private int start = 0;   // Points to first char in the current lexeme.
     private int current = 0; // Points to the current char in the source.
     private int line = 1;
 
-    private static final Map<String, TokenType> keywords = new HashMap<>();
+    // What each ASCII character can be part of. Past ASCII, letters are found
+    // with Character.isAlphabetic.
+    private static final byte DIGIT = 1;
+    private static final byte ALPHA = 2;
+    private static final byte[] ascii_classes = new byte[128];
     static {
-        keywords.put("and",      AND);
-        keywords.put("break",    BREAK);
-        keywords.put("class",    CLASS);
-        keywords.put("continue", CONTINUE);
-        keywords.put("do",       DO);
-        keywords.put("else",     ELSE);
-        keywords.put("false",    FALSE);
-        keywords.put("for",      FOR);
-        keywords.put("fun",      FUN);
-        keywords.put("if",       IF);
-        keywords.put("nil",      NIL);
-        keywords.put("or",       OR);
-        keywords.put("print",    PRINT);
-        keywords.put("println",  PRINTLN);
-        keywords.put("return",   RETURN);
-        keywords.put("super",    SUPER);
-        keywords.put("this",     THIS);
-        keywords.put("true",     TRUE);
-        keywords.put("var",      VAR);
-        keywords.put("while",    WHILE);
-    }
-
-    Scanner(String source) {
+        for (int c = '0'; c <= '9'; c++) ascii_classes[c] = DIGIT;
+        for (int c = 'a'; c <= 'z'; c++) ascii_classes[c] = ALPHA;
+        for (int c = 'A'; c <= 'Z'; c++) ascii_classes[c] = ALPHA;
+        ascii_classes['_'] = ALPHA;
+    }
+
+    Scanner(CharSequence source) {
         this.source = source;
+        this.tokens = new TokenBuffer(source);
     }
 
-    List<Token> get_tokens() {
+    TokenBuffer get_tokens() {
         while (current < source.length()) {
             this.start = this.current;
             scan_token();
         }
 
-        tokens.add(new Token(TokenType.EOF, "", null, this.line));
+        tokens.add(TokenType.EOF, current, current, this.line, null);
         return tokens;
     }
 
@@ -125,19 +111,27 @@ public class Scanner {
         }
     }
 
+    // Code points outside the BMP are two chars, so only a high surrogate needs
+    // more than the char itself.
+    int code_point_at(int index) {
+        if (index >= source.length()) return '\0';
+        char c = source.charAt(index);
+        if (!Character.isHighSurrogate(c)) return c;
+        return Character.codePointAt(source, index);
+    }
+
     int peek() {
-        if (current >= source.length()) return '\0';
-        return source.codePointAt(current);
+        return code_point_at(current);
     }
 
     int peek_next() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.codePointAt(current + 1);
+        if (is_at_end()) return '\0';
+        return code_point_at(current + Character.charCount(peek()));
     }
 
     int advance() {
-        int c = source.codePointAt(current);
-        current += 1;
+        int c = peek();
+        current += Character.charCount(c);
         return c;
     }
 
@@ -146,8 +140,11 @@ public class Scanner {
     }
 
     void add_token(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(type, start, current, line, literal);
+    }
+
+    String text(int from, int to) {
+        return source.subSequence(from, to).toString();
     }
 
     boolean match(char next) {
@@ -159,31 +156,33 @@ public class Scanner {
     }
 
     boolean is_digit(int c) {
-        return c >= '0' && c <= '9';
+        return c < 128 && ascii_classes[c] == DIGIT;
     }
 
     boolean is_alpha(int c) {
-        return (c >= 'a' && c <= 'z') ||
-               (c >= 'A' && c <= 'Z') ||
-               (c == '_') ||
-                Character.isAlphabetic(c);
+        if (c < 128) return ascii_classes[c] == ALPHA;
+        return Character.isAlphabetic(c);
     }
 
     boolean is_alpha_numeric(int c) {
-        return is_digit(c) || is_alpha(c);
+        if (c < 128) return ascii_classes[c] != 0;
+        return Character.isAlphabetic(c);
     }
 
     void scan_string_literal() {
+        boolean escapes = false, valid = true;
         while (peek() != '\"' && !is_at_end()) {
             if (peek() == '\n') this.line += 1;
             if (peek() == '\\') {
+                escapes = true;
                 current += 1;
                 switch (peek()) {
-                    case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9':
+                    case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7':
                     case 't': case 'b': case 'n': case 'r': case 'f': case '\'': case '\"': case '\\':
                         break;
                     default:
-                        Lox.error(line, "Unrecognized escape sequence \\" + (char)peek() + ".");
+                        Lox.error(line, "Unrecognized escape sequence \\" + Character.toString(peek()) + ".");
+                        valid = false;
                 }
             }
             current += 1;
@@ -197,8 +196,11 @@ public class Scanner {
         // To skip lexing the closing "
         current += 1;
 
-        String value = source.substring(start + 1, current - 1);
-        add_token(STRING, value);
+        // The escapes are translated here, once, and equal literals share one
+        // String, so evaluating a literal is just reading its value.
+        String value = text(start + 1, current - 1);
+        if (escapes && valid) value = value.translateEscapes();
+        add_token(STRING, value.intern());
     }
     
     void scan_number_literal() {
@@ -209,20 +211,77 @@ public class Scanner {
             while (is_digit(peek())) current += 1;
         }
 
-        double value = Double.parseDouble(source.substring(start, current));
+        double value = Double.parseDouble(text(start, current));
         add_token(NUMBER, value);
     }
 
     void scan_identifier() {
         while (is_alpha_numeric(peek())) {
-            current += 1;
+            advance();
         }
 
-        String name = source.substring(start, current);
-        TokenType type = keywords.get(name);
-        if (type == null) type = IDENTIFIER;
+        TokenType type = identifier_type();
+        if (type == IDENTIFIER) {
+            add_token(IDENTIFIER, names.intern(source, start, current));
+        } else {
+            add_token(type);
+        }
+    }
 
-        add_token(type);
+    // Keywords are told apart by their first letters and then compared in
+    // place, without cutting the identifier out of the source.
+    TokenType identifier_type() {
+        switch (source.charAt(start)) {
+            case 'a': return check_keyword(1, "nd", AND);
+            case 'b': return check_keyword(1, "reak", BREAK);
+            case 'c': {
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'l': return check_keyword(2, "ass", CLASS);
+                        case 'o': return check_keyword(2, "ntinue", CONTINUE);
+                    }
+                }
+            } break;
+            case 'd': return check_keyword(1, "o", DO);
+            case 'e': return check_keyword(1, "lse", ELSE);
+            case 'f': {
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'a': return check_keyword(2, "lse", FALSE);
+                        case 'o': return check_keyword(2, "r", FOR);
+                        case 'u': return check_keyword(2, "n", FUN);
+                    }
+                }
+            } break;
+            case 'i': return check_keyword(1, "f", IF);
+            case 'n': return check_keyword(1, "il", NIL);
+            case 'o': return check_keyword(1, "r", OR);
+            case 'p': {
+                if (current - start == 7) return check_keyword(1, "rintln", PRINTLN);
+                return check_keyword(1, "rint", PRINT);
+            }
+            case 'r': return check_keyword(1, "eturn", RETURN);
+            case 's': return check_keyword(1, "uper", SUPER);
+            case 't': {
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'h': return check_keyword(2, "is", THIS);
+                        case 'r': return check_keyword(2, "ue", TRUE);
+                    }
+                }
+            } break;
+            case 'v': return check_keyword(1, "ar", VAR);
+            case 'w': return check_keyword(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    TokenType check_keyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (source.charAt(start + offset + i) != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 
     void scan_multiline_comment() {
@@ -31,6 +31,9 @@ abstract class Stmt {
 		}
 
 		final List<Stmt> statements;
+
+		boolean frame_escapes = true;
+		Environment spare = null;
 	}
 
 	static class Break extends Stmt {
@@ -100,6 +103,8 @@ abstract class Stmt {
 		final Token name;
 		final List<Token> params;
 		final List<Stmt> body;
+
+		boolean frame_escapes = true;
 	}
 
 	static class If extends Stmt {
@@ -149,6 +154,8 @@ abstract class Stmt {
 
 		final Token keyword;
 		final Expr value;
+
+		boolean tail_call = false;
 	}
 
 	static class Var extends Stmt {
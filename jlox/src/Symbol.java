@@ -0,0 +1,40 @@
+package src;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// An identifier, numbered the first time the process sees its spelling. The
+// scanner gives every name token its symbol, and from then on the resolver's
+// scopes, the globals and the class layouts are keyed by the id, an int,
+// instead of hashing and comparing Strings.
+final class Symbol {
+    private static final Map<String, Symbol> table = new HashMap<>();
+
+    // Names the interpreter itself looks up.
+    static final Symbol THIS = intern("this");
+    static final Symbol CLOCK = intern("clock");
+
+    final String name;
+    final int id;
+
+    private Symbol(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    // Each compilation's NameTable only asks once per spelling, so the lock is
+    // rarely taken, even with scanners running side by side.
+    static synchronized Symbol intern(String name) {
+        Symbol symbol = table.get(name);
+        if (symbol == null) {
+            symbol = new Symbol(name, table.size());
+            table.put(name, symbol);
+        }
+        return symbol;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,25 @@
+package src;
+
+// A call in tail position. The Interpreter hands it back to LoxFunction
+// instead of making it, so the caller's Java frames are gone by the time the
+// callee runs. Each Interpreter reuses the same one.
+final class TailCall {
+    LoxFunction function;
+    LoxInstance receiver;
+    Object a, b, c;
+    Object[] rest;
+
+    TailCall set(LoxFunction function, LoxInstance receiver, Object a, Object b, Object c, Object[] rest) {
+        this.function = function;
+        this.receiver = receiver;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.rest = rest;
+        return this;
+    }
+
+    void clear() {
+        set(null, null, null, null, null, null);
+    }
+}
@@ -5,12 +5,19 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    // The identifier's Symbol id, -1 for every other kind of token.
+    final int symbol;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, -1);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, int symbol) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
     }
 
     @Override
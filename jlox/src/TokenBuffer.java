@@ -0,0 +1,100 @@
+package src;
+
+import java.util.Arrays;
+
+// The scanner's output: one entry per token, kept in parallel arrays instead of
+// a Token object and a lexeme String each. The parser looks at types, and only
+// makes a Token for the tokens the AST keeps or an error reports. Its lexeme is
+// the identifier's symbol name, or else cut out of the source then.
+// Punctuation and most keywords never become one.
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final byte IDENTIFIER = (byte)TokenType.IDENTIFIER.ordinal();
+
+    private final CharSequence source;
+    private byte[] types;
+    private int[] starts;
+    private int[] ends;
+    private int[] lines;
+    // A number's or string's value, or an identifier's Symbol. Everything else
+    // leaves it null.
+    private Object[] values;
+    private int size = 0;
+
+    TokenBuffer(CharSequence source) {
+        this.source = source;
+        // Code averages about three characters a token, whitespace included, so
+        // this usually fits without growing, or grows once.
+        int capacity = Math.max(16, source.length() / 4);
+        types = new byte[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        lines = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    private TokenBuffer(TokenBuffer other, CharSequence source) {
+        this.source = source;
+        this.types = other.types;
+        this.starts = other.starts;
+        this.ends = other.ends;
+        this.lines = other.lines;
+        this.values = other.values;
+        this.size = other.size;
+    }
+
+    void add(TokenType type, int start, int end, int line, Object value) {
+        if (size == types.length) grow();
+        types[size] = (byte)type.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        lines[size] = line;
+        values[size] = value;
+        size += 1;
+    }
+
+    // The same tokens for another thread to read once scanning is done. A
+    // mapped source keeps a read cursor, so that gets a copy of its own.
+    TokenBuffer share() {
+        if (!(source instanceof Utf8Source text)) return this;
+        return new TokenBuffer(this, text.copy());
+    }
+
+    private void grow() {
+        int capacity = 2 * types.length;
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    Object literal(int index) {
+        return types[index] == IDENTIFIER ? null : values[index];
+    }
+
+    String lexeme(int index) {
+        if (types[index] == IDENTIFIER) return ((Symbol)values[index]).name;
+        return source.subSequence(starts[index], ends[index]).toString();
+    }
+
+    Token token(int index) {
+        if (types[index] == IDENTIFIER) {
+            Symbol symbol = (Symbol)values[index];
+            return new Token(TokenType.IDENTIFIER, symbol.name, null, lines[index], symbol.id);
+        }
+        return new Token(type(index), lexeme(index), literal(index), lines[index]);
+    }
+}
@@ -0,0 +1,156 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// UTF-8 text in a ByteBuffer, usually a script mapped into memory, read as
+// chars without decoding all of it into a String first. Only the lexemes the
+// scanner takes out of it become Strings.
+//
+// The scanner reads mostly forward, so charAt remembers the code point it last
+// landed on and walks from there. Text that is all ASCII, the usual case, has
+// one byte per char and skips that.
+final class Utf8Source implements CharSequence {
+    private final ByteBuffer bytes;
+    private final int length;
+    private final boolean ascii;
+
+    // The code point the last charAt found: its first char and its first byte.
+    private int char_index = 0;
+    private int byte_index = 0;
+
+    private Utf8Source(ByteBuffer bytes, int length) {
+        this.bytes = bytes;
+        this.length = length;
+        this.ascii = length == bytes.limit();
+    }
+
+    // Malformed UTF-8 is decoded up front instead, replacing the bad bytes the
+    // way new String(bytes, UTF_8) does, so a script reads the same either way.
+    static CharSequence of(ByteBuffer bytes) {
+        bytes = bytes.slice();
+        int length = utf16_length(bytes);
+        if (length < 0) return StandardCharsets.UTF_8.decode(bytes).toString();
+        return new Utf8Source(bytes, length);
+    }
+
+    // The same text with a cursor of its own, for reading on another thread.
+    Utf8Source copy() {
+        return new Utf8Source(bytes.duplicate(), length);
+    }
+
+    // How many chars the text decodes to, or -1 if it isn't valid UTF-8.
+    private static int utf16_length(ByteBuffer bytes) {
+        int limit = bytes.limit();
+        int length = 0;
+        for (int i = 0; i < limit; ) {
+            int lead = bytes.get(i) & 0xFF;
+            if (lead < 0x80) {
+                i += 1;
+                length += 1;
+                continue;
+            }
+
+            int size = sequence_size(lead);
+            if (size == 0 || i + size > limit) return -1;
+
+            // The second byte also rules out overlong forms, surrogates and
+            // code points past U+10FFFF.
+            int second = bytes.get(i + 1) & 0xFF;
+            int low = 0x80, high = 0xBF;
+            switch (lead) {
+                case 0xE0: low = 0xA0; break;
+                case 0xED: high = 0x9F; break;
+                case 0xF0: low = 0x90; break;
+                case 0xF4: high = 0x8F; break;
+            }
+            if (second < low || second > high) return -1;
+            for (int k = 2; k < size; k++) {
+                if ((bytes.get(i + k) & 0xC0) != 0x80) return -1;
+            }
+
+            i += size;
+            length += size == 4 ? 2 : 1;
+        }
+        return length;
+    }
+
+    // Bytes in the sequence a lead byte starts, 0 if it can't start one.
+    private static int sequence_size(int lead) {
+        if (lead < 0x80) return 1;
+        if (lead < 0xC2) return 0;
+        if (lead < 0xE0) return 2;
+        if (lead < 0xF0) return 3;
+        if (lead < 0xF5) return 4;
+        return 0;
+    }
+
+    // Code points outside the BMP are two chars, a surrogate pair.
+    private int chars_at(int at) {
+        return (bytes.get(at) & 0xFF) >= 0xF0 ? 2 : 1;
+    }
+
+    private int continuation(int at) {
+        return bytes.get(at) & 0x3F;
+    }
+
+    private int decode(int at) {
+        int lead = bytes.get(at) & 0xFF;
+        switch (sequence_size(lead)) {
+            case 1: return lead;
+            case 2: return (lead & 0x1F) << 6 | continuation(at + 1);
+            case 3: return (lead & 0x0F) << 12 | continuation(at + 1) << 6 | continuation(at + 2);
+            default: return (lead & 0x07) << 18 | continuation(at + 1) << 12 | continuation(at + 2) << 6 | continuation(at + 3);
+        }
+    }
+
+    // Moves to the code point holding the char at index.
+    private void seek(int index) {
+        while (index < char_index) {
+            do byte_index -= 1; while ((bytes.get(byte_index) & 0xC0) == 0x80);
+            char_index -= chars_at(byte_index);
+        }
+        while (index >= char_index + chars_at(byte_index)) {
+            char_index += chars_at(byte_index);
+            byte_index += sequence_size(bytes.get(byte_index) & 0xFF);
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        if (ascii) return (char)bytes.get(index);
+
+        seek(index);
+        int code_point = decode(byte_index);
+        if (Character.isBmpCodePoint(code_point)) return (char)code_point;
+        return index == char_index ? Character.highSurrogate(code_point) : Character.lowSurrogate(code_point);
+    }
+
+    // A String, like String.subSequence gives.
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException();
+        if (ascii) {
+            byte[] text = new byte[end - start];
+            bytes.get(start, text);
+            return new String(text, StandardCharsets.ISO_8859_1);
+        }
+
+        StringBuilder text = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            text.append(charAt(i));
+        }
+        return text.toString();
+    }
+
+    @Override
+    public String toString() {
+        return StandardCharsets.UTF_8.decode(bytes.duplicate().clear()).toString();
+    }
+}
@@ -0,0 +1,618 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static src.OpCode.*;
+
+// Stack based virtual machine running the chunks made by the VmCompiler, laid out
+// like clox's vm. Numbers live unboxed in a double stack; the object stack holds
+// NUMBER in their slots, everything else is stored as is.
+class VM {
+    private static final Object NUMBER = new Object();
+    private static final Object UNDEFINED = new Object();
+
+    private static class CallFrame {
+        VmClosure closure;
+        int ip;
+        int base;
+    }
+
+    private final Interpreter interpreter;
+
+    private double[] numbers = new double[256];
+    private Object[] objects = new Object[256];
+    private int sp = 0;
+
+    private CallFrame[] frames = new CallFrame[64];
+    private int frame_count = 0;
+
+    private VmUpvalue open_upvalues = null;
+
+    // By Symbol id.
+    private final IntMap global_indices = new IntMap();
+    private final List<String> global_names = new ArrayList<>();
+    private double[] global_numbers = new double[64];
+    private Object[] global_objects = new Object[64];
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        global_objects[global_index(Symbol.CLOCK.id, Symbol.CLOCK.name)] = Interpreter.clock;
+    }
+
+    int global_index(Token name) {
+        return global_index(name.symbol, name.lexeme);
+    }
+
+    private int global_index(int symbol, String name) {
+        int index = global_indices.get(symbol);
+        if (index >= 0) return index;
+
+        index = global_names.size();
+        global_indices.put(symbol, index);
+        global_names.add(name);
+        if (index == global_objects.length) {
+            global_numbers = Arrays.copyOf(global_numbers, index * 2);
+            global_objects = Arrays.copyOf(global_objects, index * 2);
+        }
+        global_objects[index] = UNDEFINED;
+        return index;
+    }
+
+    void interpret(List<Stmt> statements) {
+        VmFunction script = new VmCompiler(this).compile(statements);
+        if (script == null) return;
+
+        try {
+            VmClosure closure = new VmClosure(script);
+            push(closure);
+            call(closure, 0);
+            run();
+        } catch (LoxRuntimeError error) {
+            sp = 0;
+            frame_count = 0;
+            open_upvalues = null;
+            Lox.runtime_error(error);
+        }
+    }
+
+    // Stack.
+
+    private void push(Object value) {
+        if (sp == objects.length) grow_stack();
+        store(sp++, value);
+    }
+
+    private void store(int slot, Object value) {
+        if (value instanceof Double number) {
+            numbers[slot] = number;
+            objects[slot] = NUMBER;
+        } else {
+            objects[slot] = value;
+        }
+    }
+
+    private void grow_stack() {
+        numbers = Arrays.copyOf(numbers, numbers.length * 2);
+        objects = Arrays.copyOf(objects, objects.length * 2);
+    }
+
+    private Object value(int slot) {
+        Object value = objects[slot];
+        return value == NUMBER ? (Object)numbers[slot] : value;
+    }
+
+    private Object pop() {
+        sp -= 1;
+        Object value = value(sp);
+        objects[sp] = null;
+        return value;
+    }
+
+    private boolean is_truthy(int slot) {
+        if (objects[slot] == NUMBER) return numbers[slot] != 0;
+        return Interpreter.is_truthy(objects[slot]);
+    }
+
+    private boolean is_equal(int a, int b) {
+        if (objects[a] == NUMBER && objects[b] == NUMBER) {
+            return Double.doubleToLongBits(numbers[a]) == Double.doubleToLongBits(numbers[b]);
+        }
+        return Interpreter.is_equal(value(a), value(b));
+    }
+
+    // Calls and upvalues.
+
+    // The callee's slot holds the closure, or a method's receiver.
+    private void call(VmClosure closure, int argument_count) {
+        if (frame_count == interpreter.max_depth) {
+            throw error("Stack overflow.");
+        }
+        if (frame_count == frames.length) {
+            frames = Arrays.copyOf(frames, frame_count * 2);
+        }
+        CallFrame frame = frames[frame_count];
+        if (frame == null) frame = frames[frame_count] = new CallFrame();
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argument_count - 1;
+        frame_count += 1;
+    }
+
+    private void call_value(int argument_count) {
+        Object callee = objects[sp - argument_count - 1];
+        if (callee instanceof VmClosure closure) {
+            check_arity(closure.function.arity, argument_count);
+            call(closure, argument_count);
+            return;
+        }
+        if (callee instanceof VmBoundMethod bound) {
+            check_arity(bound.method.function.arity, argument_count);
+            objects[sp - argument_count - 1] = bound.receiver;
+            call(bound.method, argument_count);
+            return;
+        }
+        if (callee instanceof VmClass vm_class) {
+            check_arity(0, argument_count);
+            objects[sp - 1] = new VmInstance(vm_class);
+            return;
+        }
+        if (callee instanceof LoxCallable callable) {
+            check_arity(callable.arity(), argument_count);
+            List<Object> arguments = new ArrayList<>(argument_count);
+            for (int i = sp - argument_count; i < sp; i++) {
+                arguments.add(value(i));
+            }
+            Object result = callable.call(interpreter, arguments);
+            sp -= argument_count + 1;
+            push(result);
+            return;
+        }
+        throw error("Can only call functions and classes.");
+    }
+
+    private void check_arity(int arity, int argument_count) {
+        if (argument_count != arity) {
+            throw error("Expected " + arity + " arguments but found " + argument_count + ".");
+        }
+    }
+
+    private VmUpvalue capture_upvalue(int slot) {
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = open_upvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        VmUpvalue created = new VmUpvalue(slot, upvalue);
+        if (previous == null) {
+            open_upvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void close_upvalues(int last) {
+        while (open_upvalues != null && open_upvalues.slot >= last) {
+            VmUpvalue upvalue = open_upvalues;
+            upvalue.number = numbers[upvalue.slot];
+            upvalue.object = objects[upvalue.slot];
+            upvalue.closed = true;
+            open_upvalues = upvalue.next;
+        }
+    }
+
+    // Errors are reported on the line of the instruction being run.
+    private LoxRuntimeError error(String message) {
+        CallFrame frame = frames[frame_count - 1];
+        int line = frame.closure.function.chunk.lines.get(frame.ip - 1);
+        return new LoxRuntimeError(new Token(TokenType.EOF, "", null, line), message);
+    }
+
+    // Properties.
+
+    private VmInstance instance(int slot, String message) {
+        if (objects[slot] instanceof VmInstance instance) return instance;
+        throw error(message);
+    }
+
+    private LoxRuntimeError missing_property(VmInstance instance, Token name) {
+        return error("The class '" + instance.vm_class.name + "' doesn't contain field '" + name.lexeme + "'.");
+    }
+
+    private Object field(VmInstance instance, int index) {
+        Object value = instance.fields[index];
+        if (value instanceof UninitializedValue) throw error("Can't access uninitialized value.");
+        return value;
+    }
+
+    // Calls the method the name refers to with the receiver already in the
+    // callee's slot, or calls the field's value if it's a field.
+    private void invoke(Token name, int argument_count) {
+        VmInstance instance = instance(sp - argument_count - 1, "Only instances have properties.");
+        int index = instance.vm_class.field_index(name.symbol);
+        if (index >= 0) {
+            store(sp - argument_count - 1, field(instance, index));
+            call_value(argument_count);
+            return;
+        }
+        int method = instance.vm_class.method_index(name.symbol);
+        if (method < 0) throw missing_property(instance, name);
+        VmClosure closure = instance.vm_class.method(method);
+        check_arity(closure.function.arity, argument_count);
+        call(closure, argument_count);
+    }
+
+    private void check_numbers(String message) {
+        if (objects[sp - 1] != NUMBER || objects[sp - 2] != NUMBER) throw error(message);
+    }
+
+    private void run() {
+        CallFrame frame = frames[frame_count - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+
+        while (true) {
+            byte instruction = code[frame.ip++];
+            switch (instruction) {
+                case OP_NIL: push(null); break;
+                case OP_TRUE: push(true); break;
+                case OP_FALSE: push(false); break;
+                case OP_CONSTANT: {
+                    push(constants[code[frame.ip++] & 0xFF]);
+                    break;
+                }
+                case OP_CONSTANT_LONG: {
+                    int index = (code[frame.ip] & 0xFF) << 16 | (code[frame.ip + 1] & 0xFF) << 8 | (code[frame.ip + 2] & 0xFF);
+                    frame.ip += 3;
+                    push(constants[index]);
+                    break;
+                }
+                case OP_POP: objects[--sp] = null; break;
+
+                case OP_GET_LOCAL: {
+                    int slot = frame.base + (code[frame.ip++] & 0xFF);
+                    if (sp == objects.length) grow_stack();
+                    numbers[sp] = numbers[slot];
+                    objects[sp++] = objects[slot];
+                    break;
+                }
+                case OP_SET_LOCAL: {
+                    int slot = frame.base + (code[frame.ip++] & 0xFF);
+                    numbers[slot] = numbers[sp - 1];
+                    objects[slot] = objects[sp - 1];
+                    break;
+                }
+                case OP_GET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[frame.ip++] & 0xFF];
+                    if (sp == objects.length) grow_stack();
+                    if (upvalue.closed) {
+                        numbers[sp] = upvalue.number;
+                        objects[sp++] = upvalue.object;
+                    } else {
+                        numbers[sp] = numbers[upvalue.slot];
+                        objects[sp++] = objects[upvalue.slot];
+                    }
+                    break;
+                }
+                case OP_SET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[frame.ip++] & 0xFF];
+                    if (upvalue.closed) {
+                        upvalue.number = numbers[sp - 1];
+                        upvalue.object = objects[sp - 1];
+                    } else {
+                        numbers[upvalue.slot] = numbers[sp - 1];
+                        objects[upvalue.slot] = objects[sp - 1];
+                    }
+                    break;
+                }
+                case OP_GET_GLOBAL: {
+                    int index = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2;
+                    Object value = global_objects[index];
+                    if (value == UNDEFINED) {
+                        throw error("Undefined variable '" + global_names.get(index) + "'.");
+                    }
+                    if (value instanceof UninitializedValue) {
+                        throw error("Can't access uninitialized variable '" + global_names.get(index) + "'.");
+                    }
+                    if (sp == objects.length) grow_stack();
+                    numbers[sp] = global_numbers[index];
+                    objects[sp++] = value;
+                    break;
+                }
+                case OP_SET_GLOBAL: {
+                    int index = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2;
+                    if (global_objects[index] == UNDEFINED) {
+                        throw error("Undefined variable '" + global_names.get(index) + "'.");
+                    }
+                    global_numbers[index] = numbers[sp - 1];
+                    global_objects[index] = objects[sp - 1];
+                    break;
+                }
+                case OP_DEFINE_GLOBAL: {
+                    int index = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2;
+                    sp -= 1;
+                    global_numbers[index] = numbers[sp];
+                    global_objects[index] = objects[sp];
+                    objects[sp] = null;
+                    break;
+                }
+                case OP_CHECK_FUNCTION_NAME: {
+                    int index = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2;
+                    if (global_objects[index] != UNDEFINED) {
+                        throw error("Function name '" + global_names.get(index) + "' is already in use.");
+                    }
+                    break;
+                }
+
+                case OP_NOT: {
+                    boolean value = !is_truthy(sp - 1);
+                    objects[sp - 1] = value;
+                    break;
+                }
+                case OP_NEGATE: {
+                    if (objects[sp - 1] != NUMBER) throw error("Operand must be a number.");
+                    numbers[sp - 1] = -numbers[sp - 1];
+                    break;
+                }
+                case OP_POSITIVE: {
+                    if (objects[sp - 1] != NUMBER) throw error("Operand must be a number.");
+                    break;
+                }
+                case OP_BITWISE_NOT: {
+                    if (objects[sp - 1] != NUMBER) throw error("Operand must be a number.");
+                    numbers[sp - 1] = (double)~((long)numbers[sp - 1]);
+                    break;
+                }
+
+                case OP_EQUAL: {
+                    boolean value = is_equal(sp - 2, sp - 1);
+                    objects[--sp] = null;
+                    objects[sp - 1] = value;
+                    break;
+                }
+                case OP_NOT_EQUAL: {
+                    boolean value = !is_equal(sp - 2, sp - 1);
+                    objects[--sp] = null;
+                    objects[sp - 1] = value;
+                    break;
+                }
+                case OP_GREATER: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    objects[sp - 1] = numbers[sp - 1] > numbers[sp];
+                    break;
+                }
+                case OP_GREATER_EQUAL: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    objects[sp - 1] = numbers[sp - 1] >= numbers[sp];
+                    break;
+                }
+                case OP_LESS: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    objects[sp - 1] = numbers[sp - 1] < numbers[sp];
+                    break;
+                }
+                case OP_LESS_EQUAL: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    objects[sp - 1] = numbers[sp - 1] <= numbers[sp];
+                    break;
+                }
+
+                case OP_ADD: {
+                    if (objects[sp - 1] == NUMBER && objects[sp - 2] == NUMBER) {
+                        sp -= 1;
+                        numbers[sp - 1] += numbers[sp];
+                        break;
+                    }
+                    Object right = pop();
+                    Object left = pop();
+                    if (left instanceof CharSequence a && right instanceof CharSequence b) {
+                        push(LoxString.concat(a, b));
+                    } else if (left instanceof CharSequence a && right instanceof Double) {
+                        push(LoxString.concat(a, (double)right));
+                    } else if (left instanceof Double && right instanceof CharSequence b) {
+                        push(LoxString.concat(Interpreter.stringify(left), b));
+                    } else {
+                        throw error("Operands must be both numbers or either one of them a string.");
+                    }
+                    break;
+                }
+                case OP_SUBTRACT: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    numbers[sp - 1] -= numbers[sp];
+                    break;
+                }
+                case OP_MULTIPLY: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    numbers[sp - 1] *= numbers[sp];
+                    break;
+                }
+                case OP_DIVIDE: {
+                    check_numbers("Operands must be numbers.");
+                    if (numbers[sp - 1] == 0) throw error("Can't divide by zero.");
+                    sp -= 1;
+                    numbers[sp - 1] /= numbers[sp];
+                    break;
+                }
+                case OP_BITWISE_AND: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    numbers[sp - 1] = (double)((long)numbers[sp - 1] & (long)numbers[sp]);
+                    break;
+                }
+                case OP_BITWISE_OR: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    numbers[sp - 1] = (double)((long)numbers[sp - 1] | (long)numbers[sp]);
+                    break;
+                }
+                case OP_BITWISE_XOR: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    numbers[sp - 1] = (double)((long)numbers[sp - 1] ^ (long)numbers[sp]);
+                    break;
+                }
+                case OP_LEFT_SHIFT: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    numbers[sp - 1] = (double)((long)numbers[sp - 1] << (long)numbers[sp]);
+                    break;
+                }
+                case OP_RIGHT_SHIFT: {
+                    check_numbers("Operands must be numbers.");
+                    sp -= 1;
+                    numbers[sp - 1] = (double)((long)numbers[sp - 1] >> (long)numbers[sp]);
+                    break;
+                }
+
+                case OP_PRINT: interpreter.out.print(Interpreter.stringify(pop())); break;
+                case OP_PRINTLN: interpreter.out.println(Interpreter.stringify(pop())); break;
+                case OP_EXPRESSION_RESULT: {
+                    int index = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2;
+                    interpreter.out.println(constants[index] + Interpreter.stringify(pop()) + "'.");
+                    break;
+                }
+
+                case OP_JUMP: {
+                    int offset = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2 + offset;
+                    break;
+                }
+                case OP_JUMP_IF_FALSE: {
+                    int offset = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2;
+                    if (!is_truthy(sp - 1)) frame.ip += offset;
+                    objects[--sp] = null;
+                    break;
+                }
+                case OP_LOOP: {
+                    int offset = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2 - offset;
+                    break;
+                }
+
+                case OP_CALL: {
+                    call_value(code[frame.ip++] & 0xFF);
+                    frame = frames[frame_count - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    break;
+                }
+                case OP_CLOSURE: {
+                    int index = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2;
+                    VmClosure closure = new VmClosure((VmFunction)constants[index]);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean is_local = code[frame.ip++] != 0;
+                        int upvalue = code[frame.ip++] & 0xFF;
+                        if (is_local) {
+                            closure.upvalues[i] = capture_upvalue(frame.base + upvalue);
+                        } else {
+                            closure.upvalues[i] = frame.closure.upvalues[upvalue];
+                        }
+                    }
+                    push(closure);
+                    break;
+                }
+                case OP_CLASS: {
+                    int index = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2;
+                    Stmt.Class declaration = (Stmt.Class)constants[index];
+                    Object[] fields = new Object[declaration.attributes.size()];
+                    VmClosure[] methods = new VmClosure[declaration.methods.size()];
+                    int first = sp - fields.length - methods.length;
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = value(first + i);
+                    }
+                    for (int i = 0; i < methods.length; i++) {
+                        methods[i] = (VmClosure)objects[first + fields.length + i];
+                    }
+                    Arrays.fill(objects, first, sp, null);
+                    sp = first;
+                    push(new VmClass(declaration, methods, fields));
+                    break;
+                }
+                case OP_GET_PROPERTY: {
+                    int index = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2;
+                    Token name = (Token)constants[index];
+                    VmInstance instance = instance(sp - 1, "Only instances have properties.");
+                    int field = instance.vm_class.field_index(name.symbol);
+                    Object value;
+                    if (field >= 0) {
+                        value = field(instance, field);
+                    } else {
+                        int method = instance.vm_class.method_index(name.symbol);
+                        if (method < 0) throw missing_property(instance, name);
+                        value = instance.bound_method(method);
+                    }
+                    store(sp - 1, value);
+                    break;
+                }
+                case OP_SET_PROPERTY: {
+                    int index = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    frame.ip += 2;
+                    Token name = (Token)constants[index];
+                    VmInstance instance = instance(sp - 1, "Expect instance for the setter.");
+                    int field = instance.vm_class.field_index(name.symbol);
+                    if (field < 0) throw missing_property(instance, name);
+                    if (instance.vm_class.method_index(name.symbol) >= 0) {
+                        throw error("The name '" + name.lexeme + "' is already used as a method.");
+                    }
+                    // The value stays on the stack as the assignment's result.
+                    objects[--sp] = null;
+                    instance.fields[field] = value(sp - 1);
+                    break;
+                }
+                case OP_INVOKE: {
+                    int index = (code[frame.ip] & 0xFF) << 8 | (code[frame.ip + 1] & 0xFF);
+                    int argument_count = code[frame.ip + 2] & 0xFF;
+                    frame.ip += 3;
+                    invoke((Token)constants[index], argument_count);
+                    frame = frames[frame_count - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    break;
+                }
+                case OP_CLOSE_UPVALUE: {
+                    close_upvalues(sp - 1);
+                    objects[--sp] = null;
+                    break;
+                }
+                case OP_RETURN: {
+                    double number = numbers[sp - 1];
+                    Object object = objects[sp - 1];
+                    close_upvalues(frame.base);
+                    frame_count -= 1;
+                    Arrays.fill(objects, frame.base, sp, null);
+                    sp = frame.base;
+                    if (frame_count == 0) return;
+
+                    numbers[sp] = number;
+                    objects[sp++] = object;
+                    frame = frames[frame_count - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + instruction + ".");
+            }
+        }
+    }
+}
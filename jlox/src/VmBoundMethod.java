@@ -0,0 +1,18 @@
+package src;
+
+// A method taken as a value. Calling it puts the receiver in slot zero, where
+// the method's code looks for 'this'.
+class VmBoundMethod {
+    final VmInstance receiver;
+    final VmClosure method;
+
+    VmBoundMethod(VmInstance receiver, VmClosure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
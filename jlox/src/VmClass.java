@@ -0,0 +1,72 @@
+package src;
+
+import java.util.Arrays;
+
+// A class made by OP_CLASS. Laid out like LoxClass: methods and fields get an
+// index by the name's Symbol id, and instances copy the fields' starting
+// values.
+class VmClass {
+    final String name;
+
+    private final IntMap method_layout = new IntMap();
+    private final VmClosure[] method_table;
+
+    private final IntMap layout = new IntMap();
+    private final Object[] defaults;
+
+    // The methods and the fields' starting values come in the order the class
+    // declares them. A name declared twice keeps its last declaration.
+    VmClass(Stmt.Class declaration, VmClosure[] methods, Object[] fields) {
+        this.name = declaration.name.lexeme;
+        VmClosure[] method_table = new VmClosure[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            int symbol = declaration.methods.get(i).name.symbol;
+            int index = method_layout.get(symbol);
+            if (index < 0) {
+                index = method_layout.size();
+                method_layout.put(symbol, index);
+            }
+            method_table[index] = methods[i];
+        }
+        this.method_table = Arrays.copyOf(method_table, method_layout.size());
+
+        Object[] defaults = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            int symbol = declaration.attributes.get(i).name.symbol;
+            int index = layout.get(symbol);
+            if (index < 0) {
+                index = layout.size();
+                layout.put(symbol, index);
+            }
+            defaults[index] = fields[i];
+        }
+        this.defaults = Arrays.copyOf(defaults, layout.size());
+    }
+
+    // -1 when the class has no such method.
+    int method_index(int symbol) {
+        return method_layout.get(symbol);
+    }
+
+    VmClosure method(int index) {
+        return method_table[index];
+    }
+
+    int method_count() {
+        return method_table.length;
+    }
+
+    // -1 when the class has no such field.
+    int field_index(int symbol) {
+        return layout.get(symbol);
+    }
+
+    Object[] new_fields() {
+        return defaults.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "<class " + name + ">";
+    }
+}
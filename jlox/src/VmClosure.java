@@ -0,0 +1,16 @@
+package src;
+
+class VmClosure {
+    final VmFunction function;
+    final VmUpvalue[] upvalues;
+
+    VmClosure(VmFunction function) {
+        this.function = function;
+        this.upvalues = new VmUpvalue[function.upvalue_count];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,622 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static src.OpCode.*;
+
+// Single pass from the parsed (and resolved) statements to bytecode for the VM.
+// Like clox's compiler it keeps its own table of locals per function, so locals
+// are stack slots and captured variables become upvalues.
+class VmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private static class CompileError extends RuntimeException {
+        CompileError() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class Local {
+        // The name's Symbol id.
+        final int symbol;
+        final int depth;
+        boolean captured = false;
+
+        Local(int symbol, int depth) {
+            this.symbol = symbol;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean is_local;
+
+        Upvalue(int index, boolean is_local) {
+            this.index = index;
+            this.is_local = is_local;
+        }
+    }
+
+    private static class Loop {
+        final int start;
+        final int local_count;
+        final boolean has_increment;
+        final List<Integer> breaks = new ArrayList<>();
+        final List<Integer> continues = new ArrayList<>();
+
+        Loop(int start, int local_count, boolean has_increment) {
+            this.start = start;
+            this.local_count = local_count;
+            this.has_increment = has_increment;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VmFunction function;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        final List<Loop> loops = new ArrayList<>();
+        int scope_depth = 0;
+
+        FunctionState(FunctionState enclosing, VmFunction function, boolean method) {
+            this.enclosing = enclosing;
+            this.function = function;
+            // Slot zero holds the closure being called, or a method's receiver.
+            locals.add(new Local(method ? Symbol.THIS.id : -1, 0));
+        }
+    }
+
+    private final VM vm;
+    private FunctionState current = null;
+    private int line = 1;
+
+    VmCompiler(VM vm) {
+        this.vm = vm;
+    }
+
+    VmFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new VmFunction(null), false);
+        try {
+            for (Stmt stmt : statements) {
+                compile(stmt);
+            }
+            emit_return();
+            return current.function;
+        } catch (CompileError error) {
+            return null;
+        } finally {
+            current = null;
+        }
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private CompileError error(Token token, String message) {
+        Lox.error(token, message);
+        return new CompileError();
+    }
+
+    // Emitting.
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private void emit(int b) {
+        chunk().write(b, line);
+    }
+
+    private void emit(int op, int operand) {
+        emit(op);
+        emit(operand);
+    }
+
+    private void emit_u16(int op, int operand) {
+        emit(op);
+        emit(operand >> 8);
+        emit(operand);
+    }
+
+    private int emit_jump(int op) {
+        emit_u16(op, 0xFFFF);
+        return chunk().count - 2;
+    }
+
+    private void patch_jump(int offset) {
+        int jump = chunk().count - offset - 2;
+        if (jump > 0xFFFF) throw error(new Token(TokenType.EOF, "", null, line), "Too much code to jump over.");
+        chunk().code[offset] = (byte)(jump >> 8);
+        chunk().code[offset + 1] = (byte)jump;
+    }
+
+    private void emit_loop(int start) {
+        int offset = chunk().count - start + 3;
+        if (offset > 0xFFFF) throw error(new Token(TokenType.EOF, "", null, line), "Loop body too large.");
+        emit_u16(OP_LOOP, offset);
+    }
+
+    private void emit_return() {
+        emit(OP_NIL);
+        emit(OP_RETURN);
+    }
+
+    private int constant(Object value) {
+        int index = chunk().add_constant(value);
+        if (index > 0xFFFF) throw error(new Token(TokenType.EOF, "", null, line), "Too many constants in one chunk.");
+        return index;
+    }
+
+    // Scopes and variables.
+
+    private void begin_scope() {
+        current.scope_depth += 1;
+    }
+
+    private void end_scope() {
+        current.scope_depth -= 1;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.getLast().depth > current.scope_depth) {
+            emit(locals.getLast().captured ? OP_CLOSE_UPVALUE : OP_POP);
+            locals.removeLast();
+        }
+    }
+
+    // Pops the locals a 'break' or 'continue' jumps out of, without forgetting
+    // them, since the code after the jump still has them on the stack.
+    private void discard_locals(int count) {
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= count; i--) {
+            emit(locals.get(i).captured ? OP_CLOSE_UPVALUE : OP_POP);
+        }
+    }
+
+    private void add_local(Token name) {
+        if (current.locals.size() > 0xFF) {
+            throw error(name, "Too many local variables in function.");
+        }
+        current.locals.add(new Local(name.symbol, current.scope_depth));
+    }
+
+    private static int resolve_local(FunctionState state, int symbol) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).symbol == symbol) return i;
+        }
+        return -1;
+    }
+
+    private int resolve_upvalue(FunctionState state, int symbol, Token name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolve_local(state.enclosing, symbol);
+        if (local != -1) {
+            state.enclosing.locals.get(local).captured = true;
+            return add_upvalue(state, local, true, name);
+        }
+
+        int upvalue = resolve_upvalue(state.enclosing, symbol, name);
+        if (upvalue != -1) {
+            return add_upvalue(state, upvalue, false, name);
+        }
+        return -1;
+    }
+
+    private int add_upvalue(FunctionState state, int index, boolean is_local, Token name) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.is_local == is_local) return i;
+        }
+        if (state.upvalues.size() > 0xFF) {
+            throw error(name, "Too many closure variables in function.");
+        }
+        state.upvalues.add(new Upvalue(index, is_local));
+        state.function.upvalue_count = state.upvalues.size();
+        return state.upvalues.size() - 1;
+    }
+
+    // 'this' is looked up like a variable, by its Symbol, since the keyword's
+    // token has none.
+    private void get_variable(Token name, int symbol) {
+        line = name.line;
+        int slot = resolve_local(current, symbol);
+        if (slot != -1) {
+            emit(OP_GET_LOCAL, slot);
+            return;
+        }
+        int upvalue = resolve_upvalue(current, symbol, name);
+        if (upvalue != -1) {
+            emit(OP_GET_UPVALUE, upvalue);
+            return;
+        }
+        emit_u16(OP_GET_GLOBAL, vm.global_index(name));
+    }
+
+    private void set_variable(Token name) {
+        line = name.line;
+        int slot = resolve_local(current, name.symbol);
+        if (slot != -1) {
+            emit(OP_SET_LOCAL, slot);
+            return;
+        }
+        int upvalue = resolve_upvalue(current, name.symbol, name);
+        if (upvalue != -1) {
+            emit(OP_SET_UPVALUE, upvalue);
+            return;
+        }
+        emit_u16(OP_SET_GLOBAL, vm.global_index(name));
+    }
+
+    private void function(Token name, List<Token> params, List<Stmt> body, boolean method) {
+        String function_name = name.type == TokenType.FUN ? "" : name.lexeme;
+        FunctionState state = new FunctionState(current, new VmFunction(function_name), method);
+        state.function.arity = params.size();
+        current = state;
+
+        begin_scope();
+        for (Token param : params) {
+            add_local(param);
+        }
+        for (Stmt stmt : body) {
+            compile(stmt);
+        }
+        emit_return();
+
+        current = state.enclosing;
+        line = name.line;
+        emit_u16(OP_CLOSURE, constant(state.function));
+        for (Upvalue upvalue : state.upvalues) {
+            emit(upvalue.is_local ? 1 : 0);
+            emit(upvalue.index);
+        }
+    }
+
+    // Statements.
+
+    @Override
+    public Void visit_block_stmt(Stmt.Block stmt) {
+        begin_scope();
+        for (Stmt inner : stmt.statements) {
+            compile(inner);
+        }
+        end_scope();
+        return null;
+    }
+
+    @Override
+    public Void visit_break_stmt(Stmt.Break stmt) {
+        Loop loop = current.loops.getLast();
+        discard_locals(loop.local_count);
+        loop.breaks.add(emit_jump(OP_JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visit_continue_stmt(Stmt.Continue stmt) {
+        Loop loop = current.loops.getLast();
+        discard_locals(loop.local_count);
+        if (loop.has_increment) {
+            loop.continues.add(emit_jump(OP_JUMP));
+        } else {
+            emit_loop(loop.start);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit_class_stmt(Stmt.Class stmt) {
+        // The name is defined as nil first, then given the class, like the
+        // tree-walker does, so the class is seen the same way from inside it.
+        line = stmt.name.line;
+        emit(OP_NIL);
+        if (current.scope_depth == 0) {
+            emit_u16(OP_DEFINE_GLOBAL, vm.global_index(stmt.name));
+        } else {
+            add_local(stmt.name);
+        }
+
+        // OP_CLASS takes the fields' starting values and then the methods off
+        // the stack.
+        for (Stmt.Var field : stmt.attributes) {
+            line = field.name.line;
+            if (field.initializer != null) {
+                compile(field.initializer);
+            } else {
+                chunk().write_constant(new UninitializedValue(), line);
+            }
+        }
+        for (Stmt.Function method : stmt.methods) {
+            function(method.name, method.params, method.body, true);
+        }
+        line = stmt.name.line;
+        emit_u16(OP_CLASS, constant(stmt));
+        set_variable(stmt.name);
+        emit(OP_POP);
+        return null;
+    }
+
+    @Override
+    public Void visit_expression_stmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        if (Lox.REPL) {
+            emit_u16(OP_EXPRESSION_RESULT, constant("expression statement '" + stmt.expression + "' has a value of '"));
+        } else {
+            emit(OP_POP);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit_function_stmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        int global = vm.global_index(stmt.name);
+        emit_u16(OP_CHECK_FUNCTION_NAME, global);
+        if (current.scope_depth == 0) {
+            function(stmt.name, stmt.params, stmt.body, false);
+            emit_u16(OP_DEFINE_GLOBAL, global);
+        } else {
+            // Declared first so the function can refer to itself.
+            add_local(stmt.name);
+            function(stmt.name, stmt.params, stmt.body, false);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit_if_stmt(Stmt.If stmt) {
+        List<Integer> end_jumps = new ArrayList<>();
+
+        compile(stmt.condition);
+        int next = emit_jump(OP_JUMP_IF_FALSE);
+        compile(stmt.then_branch);
+        end_jumps.add(emit_jump(OP_JUMP));
+        patch_jump(next);
+
+        for (Else_If else_if : stmt.else_ifs) {
+            compile(else_if.condition);
+            next = emit_jump(OP_JUMP_IF_FALSE);
+            compile(else_if.then_branch);
+            end_jumps.add(emit_jump(OP_JUMP));
+            patch_jump(next);
+        }
+
+        if (stmt.else_branch != null) compile(stmt.else_branch);
+        for (int jump : end_jumps) patch_jump(jump);
+        return null;
+    }
+
+    @Override
+    public Void visit_print_stmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(stmt.newline ? OP_PRINTLN : OP_PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visit_return_stmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(OP_NIL);
+        }
+        emit(OP_RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visit_var_stmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            chunk().write_constant(new UninitializedValue(), line);
+        }
+
+        if (current.scope_depth == 0) {
+            emit_u16(OP_DEFINE_GLOBAL, vm.global_index(stmt.name));
+        } else {
+            add_local(stmt.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit_while_stmt(Stmt.While stmt) {
+        boolean has_increment = stmt.has_increment && stmt.body instanceof Stmt.Block;
+        Loop loop = new Loop(chunk().count, current.locals.size(), has_increment);
+
+        compile(stmt.condition);
+        int exit = emit_jump(OP_JUMP_IF_FALSE);
+
+        current.loops.add(loop);
+        if (has_increment) {
+            // The increment is the body's last statement. It is compiled after the
+            // body's scope is closed so 'continue' can jump to it with the body's
+            // locals already popped.
+            List<Stmt> body = ((Stmt.Block)stmt.body).statements;
+            begin_scope();
+            for (int i = 0; i < body.size() - 1; i++) {
+                compile(body.get(i));
+            }
+            end_scope();
+            for (int jump : loop.continues) patch_jump(jump);
+            compile(body.getLast());
+        } else {
+            compile(stmt.body);
+        }
+        current.loops.removeLast();
+
+        emit_loop(loop.start);
+        patch_jump(exit);
+        for (int jump : loop.breaks) patch_jump(jump);
+        return null;
+    }
+
+    // Expressions.
+
+    @Override
+    public Void visit_assign_expr(Expr.Assign expr) {
+        compile(expr.value);
+        set_variable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visit_binary_expr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case STAR: emit(OP_MULTIPLY); break;
+            case SLASH: emit(OP_DIVIDE); break;
+            case MINUS: emit(OP_SUBTRACT); break;
+            case PLUS: emit(OP_ADD); break;
+            case GREATER: emit(OP_GREATER); break;
+            case GREATER_EQUAL: emit(OP_GREATER_EQUAL); break;
+            case LESS: emit(OP_LESS); break;
+            case LESS_EQUAL: emit(OP_LESS_EQUAL); break;
+            case EQUAL_EQUAL: emit(OP_EQUAL); break;
+            case BANG_EQUAL: emit(OP_NOT_EQUAL); break;
+            case BITWISE_AND: emit(OP_BITWISE_AND); break;
+            case BITWISE_OR: emit(OP_BITWISE_OR); break;
+            case BITWISE_XOR: emit(OP_BITWISE_XOR); break;
+            case LEFT_SHIFT: emit(OP_LEFT_SHIFT); break;
+            case RIGHT_SHIFT: emit(OP_RIGHT_SHIFT); break;
+            default: {
+                emit(OP_POP);
+                emit(OP_POP);
+                emit(OP_NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit_call_expr(Expr.Call expr) {
+        // 'object.method(...)' calls the method without binding it first.
+        Expr.Get get = expr.callee instanceof Expr.Get property ? property : null;
+        compile(get != null ? get.object : expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        if (get != null) {
+            line = get.name.line;
+            emit_u16(OP_INVOKE, constant(get.name));
+            emit(expr.arguments.size());
+        } else {
+            line = expr.paren.line;
+            emit(OP_CALL, expr.arguments.size());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit_get_expr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emit_u16(OP_GET_PROPERTY, constant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visit_grouping_expr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visit_lambda_expr(Expr.Lambda expr) {
+        function(expr.token, expr.params, expr.body, false);
+        return null;
+    }
+
+    @Override
+    public Void visit_literal_expr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OP_NIL);
+        } else if (expr.value instanceof Boolean bool) {
+            emit(bool ? OP_TRUE : OP_FALSE);
+        } else {
+            chunk().write_constant(expr.value, line);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit_logical_expr(Expr.Logical expr) {
+        // Jumps to 'decided' as soon as an operand settles the result: a truthy
+        // one for 'or' (OP_NOT turns it into the falsy the jump looks for), a
+        // falsy one for 'and'.
+        boolean or = expr.operator.type == TokenType.OR;
+        List<Integer> decided = new ArrayList<>();
+        for (Expr operand : List.of(expr.left, expr.right)) {
+            compile(operand);
+            if (or) emit(OP_NOT);
+            decided.add(emit_jump(OP_JUMP_IF_FALSE));
+        }
+        emit(or ? OP_FALSE : OP_TRUE);
+        int end = emit_jump(OP_JUMP);
+        for (int jump : decided) patch_jump(jump);
+        emit(or ? OP_TRUE : OP_FALSE);
+        patch_jump(end);
+        return null;
+    }
+
+    @Override
+    public Void visit_set_expr(Expr.Set expr) {
+        // The value first, as the tree-walker evaluates them.
+        compile(expr.value);
+        compile(expr.object);
+        line = expr.name.line;
+        emit_u16(OP_SET_PROPERTY, constant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visit_this_expr(Expr.This expr) {
+        get_variable(expr.keyword, Symbol.THIS.id);
+        return null;
+    }
+
+    @Override
+    public Void visit_ternary_expr(Expr.Ternary expr) {
+        compile(expr.condition);
+        int otherwise = emit_jump(OP_JUMP_IF_FALSE);
+        compile(expr.if_true);
+        int end = emit_jump(OP_JUMP);
+        patch_jump(otherwise);
+        compile(expr.otherwise);
+        patch_jump(end);
+        return null;
+    }
+
+    @Override
+    public Void visit_unary_expr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS: emit(OP_NEGATE); break;
+            case PLUS: emit(OP_POSITIVE); break;
+            case BANG: emit(OP_NOT); break;
+            case BITWISE_NOT: emit(OP_BITWISE_NOT); break;
+            default: {
+                emit(OP_POP);
+                emit(OP_NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit_variable_expr(Expr.Variable expr) {
+        get_variable(expr.name, expr.name.symbol);
+        return null;
+    }
+}
@@ -0,0 +1,19 @@
+package src;
+
+class VmFunction {
+    final String name;
+    int arity = 0;
+    int upvalue_count = 0;
+    final Chunk chunk = new Chunk();
+
+    VmFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        if (name.isEmpty()) return "<lambda>";
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,30 @@
+package src;
+
+class VmInstance {
+    final VmClass vm_class;
+    final Object[] fields;
+
+    // The methods already bound to this instance, made on first use, so the
+    // same method taken twice is the same value.
+    private VmBoundMethod[] bound_methods = null;
+
+    VmInstance(VmClass vm_class) {
+        this.vm_class = vm_class;
+        this.fields = vm_class.new_fields();
+    }
+
+    VmBoundMethod bound_method(int index) {
+        if (bound_methods == null) bound_methods = new VmBoundMethod[vm_class.method_count()];
+        VmBoundMethod bound = bound_methods[index];
+        if (bound == null) {
+            bound = new VmBoundMethod(this, vm_class.method(index));
+            bound_methods[index] = bound;
+        }
+        return bound;
+    }
+
+    @Override
+    public String toString() {
+        return "<instanceof " + vm_class.name + ">";
+    }
+}
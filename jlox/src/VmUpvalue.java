@@ -0,0 +1,16 @@
+package src;
+
+// A variable captured by a closure. While its slot is still on the VM stack the
+// upvalue points there; once the slot is popped the value moves in here.
+class VmUpvalue {
+    int slot;
+    boolean closed = false;
+    double number;
+    Object object;
+    VmUpvalue next;
+
+    VmUpvalue(int slot, VmUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}